@@ -123,6 +123,33 @@ public class Catalog {
         }
     }
 
+    /**
+     * Drop a table from the catalog and close the DbFile that stores it.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void removeTable(int tableid) throws NoSuchElementException {
+        DbFile file = idTracker.remove(tableid);
+        if (file == null) {
+            throw new NoSuchElementException();
+        }
+        String name = idNameTracker.remove(tableid);
+        idKeyTracker.remove(tableid);
+        if (name != null && nameTracker.get(name) == file) {
+            nameTracker.remove(name);
+        }
+        closeFile(file);
+    }
+
+    private void closeFile(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return null;
@@ -136,10 +163,23 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (DbFile file : idTracker.values()) {
+            closeFile(file);
+        }
+        nameTracker.clear();
+        idTracker.clear();
+        idKeyTracker.clear();
+        idNameTracker.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format
+     * <pre>
+     *     name (field type [pk], field type [pk], ...) [mmap]
+     * </pre>
+     * where the optional trailing mmap option makes the table read its pages
+     * through a memory mapping, see {@link HeapFile#HeapFile(File, TupleDesc, boolean)}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -177,10 +217,18 @@ public class Catalog {
                         }
                     }
                 }
+                boolean memoryMapped = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.equalsIgnoreCase("mmap")) {
+                    memoryMapped = true;
+                } else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, memoryMapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolMetrics;
 import simpledb.storage.LogFile;
 
 import java.io.*;
@@ -48,6 +49,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the metrics of the buffer pool of the static Database instance */
+    public static BufferPoolMetrics getBufferPoolMetrics() {
+        return getBufferPool().getMetrics();
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -58,11 +64,19 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- install the given buffer pool, e.g. one
+     * with a different replacement policy, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
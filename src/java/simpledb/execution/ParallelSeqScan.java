@@ -0,0 +1,360 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan is a sequential scan of a HeapFile that reads the file
+ * with several threads. The page range of the file is split into morsels of
+ * {@link #MORSEL_PAGES} pages; each worker repeatedly claims the next morsel,
+ * scans it under the scan's TransactionId and puts the tuples into a bounded
+ * queue that {@link #next()} takes them from.
+ * <p>
+ * Tuples are returned in no particular order. Everything else, including
+ * projected columns and pushed-down predicates, behaves as in
+ * {@link SeqScan}, so the optimizer can use either one. LogicalPlan picks
+ * this scan for tables of at least {@link #getThreshold()} pages.
+ * <p>
+ * Workers run on a pool of {@link #getParallelism()} daemon threads shared
+ * by all parallel scans, and each scan starts at most that many of them. A
+ * worker whose queue stays full, e.g. while a join reads its other child,
+ * gives its thread back and queues up behind the other scans' workers, so
+ * that it does not keep them from running.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages each worker claims at a time. */
+    public static final int MORSEL_PAGES = 32;
+
+    /** Number of tuples the workers may read ahead of the consumer. */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /** Default number of pages from which LogicalPlan scans a table in parallel. */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static volatile int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static volatile int threshold = DEFAULT_THRESHOLD;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, "simpledb-scan");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Put into the queue by each worker when it is done. */
+    private static final Tuple END = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
+
+    private final HeapFile file;
+    private transient BlockingQueue<Tuple> queue;
+    private transient List<Worker> workers;
+    private transient CountDownLatch finished;
+    private transient volatile boolean cancelled;
+    private transient volatile Exception failure;
+    private transient int running;
+    private transient Tuple next;
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan; it must be stored in a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, see
+     *            {@link SeqScan#SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            indexes of the table columns to return, or null for all of
+     *            them
+     * @param predicates
+     *            conditions on the table columns that returned tuples
+     *            satisfy, or null
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public ParallelSeqScan(TransactionId tid, int tableId, String tableAlias, int[] columns,
+                           List<Predicate> predicates) {
+        super(tid, tableId, tableAlias, columns, predicates);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HeapFile)) {
+            throw new IllegalArgumentException("only HeapFiles can be scanned in parallel");
+        }
+        this.file = (HeapFile) f;
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableId, String tableAlias) {
+        this(tid, tableId, tableAlias, null, null);
+    }
+
+    /**
+     * Sets the number of threads the workers of all parallel scans share,
+     * which is also the most workers a single scan starts.
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("a scan needs at least one worker");
+        }
+        // the core size may never exceed the maximum size
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+        parallelism = threads;
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of pages from which LogicalPlan scans a table in
+     * parallel.
+     */
+    public static void setThreshold(int pages) {
+        threshold = pages;
+    }
+
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        cancelled = false;
+        failure = null;
+        next = null;
+        queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        workers = new ArrayList<>();
+
+        int numPages = file.numPages();
+        int morsels = (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES;
+        running = Math.max(1, Math.min(parallelism, morsels));
+        finished = new CountDownLatch(running);
+        final AtomicInteger nextMorsel = new AtomicInteger();
+        for (int i = 0; i < running; i++) {
+            Worker w = new Worker(nextMorsel, morsels, queue, finished);
+            workers.add(w);
+            executor.execute(w);
+        }
+    }
+
+    /**
+     * Scans morsels until there are none left, the scan is closed, or
+     * reading fails, and then puts {@link #END} into the queue. A worker
+     * that cannot put a tuple into the full queue for a while returns and
+     * submits itself to the pool again, keeping its place in its morsel.
+     */
+    private final class Worker implements Runnable {
+        private final AtomicInteger nextMorsel;
+        private final int morsels;
+        private final BlockingQueue<Tuple> queue;
+        private final CountDownLatch finished;
+        private DbFileIterator it;
+        /** The tuple the queue had no room for, or END once the worker is done. */
+        private Tuple pending;
+        /** The thread running the worker, or null; guarded by the worker's monitor. */
+        private Thread thread;
+
+        Worker(AtomicInteger nextMorsel, int morsels, BlockingQueue<Tuple> queue, CountDownLatch finished) {
+            this.nextMorsel = nextMorsel;
+            this.morsels = morsels;
+            this.queue = queue;
+            this.finished = finished;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            boolean done = true;
+            try {
+                done = scan();
+            } catch (DbException | TransactionAbortedException | InterruptedException | RuntimeException e) {
+                // an interrupt or abort caused by close() is nobody's business
+                if (!cancelled) {
+                    failure = e instanceof InterruptedException
+                            ? new DbException("scan worker interrupted") : e;
+                    pending = END;
+                    done = false;
+                }
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // an interrupt from cancel() must not hit the pool's next task
+                    Thread.interrupted();
+                }
+            }
+            if (done) {
+                finish();
+            } else {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * @return true if the worker is done, false if it has to run again
+         *   because the queue is full
+         */
+        private boolean scan() throws DbException, TransactionAbortedException, InterruptedException {
+            while (!cancelled) {
+                if (pending != null) {
+                    if (!queue.offer(pending, 10, TimeUnit.MILLISECONDS)) {
+                        return false;
+                    }
+                    if (pending == END) {
+                        return true;
+                    }
+                    pending = null;
+                }
+                if (failure != null) {
+                    // another worker failed
+                    pending = END;
+                } else if (it == null) {
+                    int m = nextMorsel.getAndIncrement();
+                    if (m >= morsels) {
+                        pending = END;
+                    } else {
+                        it = file.iterator(transactionId, columns, getPredicates(),
+                                m * MORSEL_PAGES, (m + 1) * MORSEL_PAGES);
+                        it.open();
+                    }
+                } else if (it.hasNext()) {
+                    pending = it.next();
+                } else {
+                    it.close();
+                    it = null;
+                }
+            }
+            return true;
+        }
+
+        private void finish() {
+            if (it != null) {
+                it.close();
+                it = null;
+            }
+            pending = null;
+            finished.countDown();
+        }
+
+        /**
+         * Interrupts the worker if it is running, e.g. waiting for a page
+         * lock, or finishes it on the calling thread if it waits for a
+         * thread of the pool. Only called once cancelled is set.
+         */
+        void cancel() {
+            synchronized (this) {
+                if (thread != null) {
+                    thread.interrupt();
+                    return;
+                }
+            }
+            if (executor.remove(this)) {
+                finish();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (queue == null) {
+            throw new IllegalStateException("scan not open");
+        }
+        while (next == null && running > 0) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for scan workers");
+            }
+            if (t == END) {
+                running--;
+                Exception e = failure;
+                if (e instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) e;
+                } else if (e instanceof DbException) {
+                    throw (DbException) e;
+                } else if (e != null) {
+                    throw (RuntimeException) e;
+                }
+            } else {
+                next = t;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more tuples!");
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    /**
+     * Stops the workers and waits until they have let go of their pages, so
+     * that none of them still reads under the transaction once it completes.
+     * Workers waiting for a lock are interrupted. The wait is not cut short
+     * by interrupting the caller; its interrupt status is kept.
+     */
+    @Override
+    public void close() {
+        if (queue == null) {
+            return;
+        }
+        cancelled = true;
+        for (Worker w : workers) {
+            w.cancel();
+        }
+        queue.clear();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        queue = null;
+        workers = null;
+        finished = null;
+        next = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -23,6 +23,10 @@ public class SeqScan implements OpIterator {
     final TransactionId transactionId;
     int tableId;
     String tableAlias;
+    /** Indexes of the table columns this scan returns, or null for all of them. */
+    final int[] columns;
+    /** Conditions on the table columns that returned tuples satisfy; empty for none. */
+    private final List<Predicate> predicates;
 
 
     private DbFile dbFile;
@@ -45,13 +49,72 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableId, String tableAlias) {
+        this(tid, tableId, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns some columns of the
+     * specified table. Pages decode just those columns, so operators above
+     * the scan that never look at the other ones do not pay for them.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            indexes of the table columns to return, in the order they
+     *            should appear in the returned tuples, or null for all of
+     *            them.
+     */
+    public SeqScan(TransactionId tid, int tableId, String tableAlias, int[] columns) {
+        this(tid, tableId, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples of the specified
+     * table that satisfy every predicate, holding only some of its columns.
+     * The predicates are evaluated by the file while it decodes its pages, so
+     * rejected tuples are never built; this replaces a {@link Filter} over
+     * the scan.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            indexes of the table columns to return, or null for all of
+     *            them, see {@link #SeqScan(TransactionId, int, String, int[])}
+     * @param predicates
+     *            conditions that all have to hold; their field numbers refer
+     *            to the columns of the table, not to the returned tuples.
+     *            May be null.
+     */
+    public SeqScan(TransactionId tid, int tableId, String tableAlias, int[] columns, List<Predicate> predicates) {
         // some code goes here
         this.tableId = tableId;
         this.transactionId = tid;
         this.tableAlias = tableAlias;
+        this.columns = columns == null ? null : columns.clone();
+        this.predicates = predicates == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(predicates));
 
         this.dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        this.dbFileIterator = dbFile.iterator(tid);
+        this.dbFileIterator = dbFile.iterator(tid, this.columns, this.predicates);
+    }
+
+    /**
+     * @return the predicates evaluated by this scan; their field numbers
+     *       refer to the columns of the table.
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
     }
 
     /**
@@ -131,14 +194,19 @@ public class SeqScan implements OpIterator {
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.  The alias and name should be separated with a "." character
-     * (e.g., "alias.fieldName").
+     * (e.g., "alias.fieldName"). If the scan was created with a list of
+     * columns, only those fields are included.
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
      */
     //I do a deep copy and change or just a shallow copy?
     public TupleDesc getTupleDesc() {
-        TupleDesc.TDItem[] tdItems = Database.getCatalog().getTupleDesc(this.tableId).getTdItems().clone();
+        TupleDesc td = Database.getCatalog().getTupleDesc(this.tableId);
+        if (columns != null) {
+            td = td.project(columns);
+        }
+        TupleDesc.TDItem[] tdItems = td.getTdItems().clone();
         for (int i = 0; i < tdItems.length; i++) {
             tdItems[i] = new TupleDesc.TDItem(tdItems[i].fieldType, this.tableAlias + "." + tdItems[i].fieldName);
         }
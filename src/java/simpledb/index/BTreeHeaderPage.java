@@ -71,13 +71,15 @@ public class BTreeHeaderPage implements Page {
 
 		dis.close();
 
-		setBeforeImage();
+		// data is what the page was read from, so it is the before image
+		oldData = data;
 	}
 
 	/**
 	 * Initially mark all slots in the header used.
 	 */
 	public void init() {
+		beforeWrite();
         Arrays.fill(header, (byte) 0xFF);
 	}
 
@@ -104,7 +106,7 @@ public class BTreeHeaderPage implements Page {
 			byte[] oldDataRef = null;
 			synchronized(oldDataLock)
 			{
-				oldDataRef = oldData;
+				oldDataRef = oldData != null ? oldData : getPageData();
 			}
 			return new BTreeHeaderPage(pid,oldDataRef);
 		} catch (IOException e) {
@@ -118,7 +120,19 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Copies the current contents into the before image if this is the
+	 * first modification since the page was committed
+	 */
+	private void beforeWrite() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null)
+				oldData = getPageData();
 		}
 	}
 
@@ -220,6 +234,7 @@ public class BTreeHeaderPage implements Page {
 	 * @throws DbException
 	 */
 	public void setPrevPageId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			prevPage = 0;
 		}
@@ -240,6 +255,7 @@ public class BTreeHeaderPage implements Page {
 	 * @throws DbException
 	 */
 	public void setNextPageId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			nextPage = 0;
 		}
@@ -290,6 +306,7 @@ public class BTreeHeaderPage implements Page {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeHeaderPage.setSlot: setting slot %d to %b", i, value);
+		beforeWrite();
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
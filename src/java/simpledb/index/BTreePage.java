@@ -28,6 +28,11 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	/**
+	 * The page as it was before the running transaction modified it, or null
+	 * if it was not modified since it was committed: the before image is then
+	 * only copied when the next modification starts.
+	 */
 	protected byte[] oldData;
 	protected final Byte oldDataLock= (byte) 0;
 
@@ -107,6 +112,7 @@ public abstract class BTreePage implements Page {
 		if(id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
 			throw new DbException("parent must be an internal node or root pointer");
 		}
+		beforeWrite();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			parent = 0;
 		}
@@ -115,6 +121,35 @@ public abstract class BTreePage implements Page {
 		}
 	}
 
+	/**
+	 * Returns the before image's bytes, serializing the current contents if
+	 * the page was not modified since it was committed.
+	 */
+	protected byte[] beforeImageData() {
+		synchronized(oldDataLock) {
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
+	public void setBeforeImage() {
+		synchronized(oldDataLock) {
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Copies the current contents into the before image if this is the
+	 * first modification since the page was committed. Every method that
+	 * modifies the page calls this first.
+	 */
+	protected void beforeWrite() {
+		synchronized(oldDataLock) {
+			if (oldData == null) {
+				oldData = getPageData();
+			}
+		}
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
@@ -48,11 +48,21 @@ public class BTreeRootPtrPage implements Page {
 		// read in the header pointer
 		header = dis.readInt();
 		
-		setBeforeImage();
+		// data is what the page was read from, so it is the before image
+		oldData = data;
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = null;
+	}
+
+	/**
+	 * Copies the current contents into the before image if this is the
+	 * first modification since the page was committed
+	 */
+	private void beforeWrite() {
+		if (oldData == null)
+			oldData = getPageData();
 	}
 
 	/**
@@ -144,7 +154,7 @@ public class BTreeRootPtrPage implements Page {
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
 		try {
-			return new BTreeRootPtrPage(pid,oldData);
+			return new BTreeRootPtrPage(pid,oldData != null ? oldData : getPageData());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -170,6 +180,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @throws DbException if the id is invalid
 	 */
 	public void setRootId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			root = 0;
 		}
@@ -202,6 +213,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @throws DbException if the id is invalid
 	 */
 	public void setHeaderId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			header = 0;
 		}
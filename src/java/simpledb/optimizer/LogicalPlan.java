@@ -292,35 +292,40 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,int[]> columnMap = neededColumns();
+        Map<String,List<Predicate>> scanPredicates = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                Database.getCatalog().getDatabaseFile(table.t);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-            
-            subplanMap.put(table.alias,ss);
+
+            scanPredicates.put(table.alias, new ArrayList<>());
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        // every filter refers to a single table, so it is evaluated by that table's scan
         for (LogicalFilterNode lf : filters) {
-            OpIterator subplan = subplanMap.get(lf.tableAlias);
-            if (subplan == null) {
+            List<Predicate> predicates = scanPredicates.get(lf.tableAlias);
+            if (predicates == null) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
             Field f;
             Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            // scan predicates and table statistics are indexed by the columns of the base table
+            TupleDesc td = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            int field;
 
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                ftyp = td.getFieldType(field);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
@@ -329,21 +334,28 @@ public class LogicalPlan {
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            predicates.add(new Predicate(field, lf.p, f));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel = s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        for (LogicalScanNode table : tables) {
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            SeqScan ss;
+            if (file instanceof HeapFile && ((HeapFile) file).numPages() >= ParallelSeqScan.getThreshold()) {
+                ss = new ParallelSeqScan(t, file.getId(), table.alias,
+                        columnMap.get(table.alias), scanPredicates.get(table.alias));
+            } else {
+                ss = new SeqScan(t, file.getId(), table.alias,
+                        columnMap.get(table.alias), scanPredicates.get(table.alias));
+            }
+            subplanMap.put(table.alias,ss);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -478,6 +490,70 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /** Works out which columns of each scanned table the operators above the
+     *  scans read: the fields of the select list, the aggregate, GROUP BY and
+     *  ORDER BY fields, and the fields used by joins.
+     *  @return for each table alias, the indexes of the columns its
+     *   {@link SeqScan} should return in table order; aliases that need every
+     *   column, as with "SELECT *", map to null (or are absent).
+     */
+    private Map<String,int[]> neededColumns() {
+        Map<String,int[]> columnMap = new HashMap<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                return columnMap;
+            }
+        }
+
+        List<String> fields = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            fields.add(si.fname);
+        }
+        if (hasAgg) {
+            fields.add(aggField);
+            fields.add(groupByField);
+        }
+        if (hasOrderBy) {
+            fields.add(oByField);
+        }
+        // filters are evaluated by the scans on the table columns, so their
+        // fields only need to be returned if something above uses them
+        for (LogicalJoinNode lj : joins) {
+            fields.add(lj.f1QuantifiedName);
+            fields.add(lj.f2QuantifiedName);
+        }
+
+        Map<String,Set<Integer>> used = new HashMap<>();
+        for (String name : fields) {
+            // skip names that are not alias.field, e.g. the second field of a subplan join
+            String[] parts = name == null ? new String[0] : name.split("[.]");
+            Integer tableId = parts.length == 2 ? tableMap.get(parts[0]) : null;
+            if (tableId == null) {
+                continue;
+            }
+            try {
+                int column = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(parts[1]);
+                used.computeIfAbsent(parts[0], k -> new TreeSet<>()).add(column);
+            } catch (NoSuchElementException e) {
+                // unknown fields are reported when the plan is built
+            }
+        }
+
+        for (LogicalScanNode table : tables) {
+            Set<Integer> columns = used.get(table.alias);
+            if (columns == null || columns.size() == Database.getCatalog().getTupleDesc(table.t).numFields()) {
+                continue;
+            }
+            int[] ids = new int[columns.size()];
+            int i = 0;
+            for (int column : columns) {
+                ids[i++] = column;
+            }
+            columnMap.put(table.alias, ids);
+        }
+        return columnMap;
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
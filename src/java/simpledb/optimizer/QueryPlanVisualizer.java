@@ -4,6 +4,7 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -78,6 +79,14 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            // predicates pushed into the scan take the place of select nodes
+            TupleDesc td = Database.getCatalog().getTupleDesc(
+                    Database.getCatalog().getTableId(tableName));
+            for (Predicate p : s.getPredicates()) {
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT, s.getAlias()
+                        + "." + td.getFieldName(p.getField()) + p.getOp()
+                        + p.getOperand());
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -8,6 +8,7 @@ import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
 
 
 
@@ -33,46 +34,258 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private static class dNode {
-        PageId pageId;
-        Page page;
-        dNode prev;
-        dNode next;
-        dNode () {}
-        dNode (PageId id, Page page) {
-            this.pageId = id;
-            this.page = page;
-        }
-    }
+    /** Fraction of the pool a file must exceed for scans of it to use a {@link BufferRing}. */
+    public static final double SCAN_RING_THRESHOLD = 0.75;
+
+    /** Off-heap frames per cached page: one for its bytes, one for its before image. */
+    public static final int FRAMES_PER_PAGE = 2;
+
+    private static volatile boolean offHeap = true;
+
+    private static volatile boolean defaultSteal = false;
 
-    private final Map<PageId, dNode> bufferPool = new ConcurrentHashMap<>();
-    int size;
-    dNode sentinel = new dNode();
-    int numPages;
-    private LockManager lockManager;
+    /** Share of each shard the {@link PageCleaner} tries to keep free or clean. */
+    public static final double CLEAN_RESERVE = 0.25;
 
+    /** Smallest share of the pool each shard gets by default. */
+    public static final int MIN_SHARD_PAGES = 256;
 
+    /**
+     * A hash partition of the pool. Each shard caches the pages whose id
+     * hashes to it, evicts with its own replacer and serializes changes to
+     * its contents on its own monitor, so page misses and evictions in
+     * different shards do not contend. Hits take no lock at all.
+     */
+    private static final class Shard {
+        final Map<PageId, Page> pages = new ConcurrentHashMap<>();
+        final int capacity;
+        final Replacer replacer;
+        /**
+         * The pages being prefetched, mapped to false once the page left the
+         * shard during the read: the copy read may then be older than the
+         * one on disk. Changed under the monitor, except to add a page.
+         */
+        final Map<PageId, Boolean> prefetching = new ConcurrentHashMap<>();
+
+        Shard(int capacity, Replacer replacer) {
+            this.capacity = capacity;
+            this.replacer = replacer;
+        }
+
+        /** Takes a page out of the shard. The caller holds the monitor. */
+        void remove(PageId pid) {
+            Page page = pages.remove(pid);
+            if (page != null) {
+                if (!prefetching.isEmpty()) {
+                    prefetching.replace(pid, Boolean.FALSE);
+                }
+                detach(page);
+            }
+        }
+
+        /**
+         * Gives the frames of a page that is no longer cached back to the
+         * arena; see {@link HeapPage}.
+         */
+        static void detach(Page page) {
+            if (page instanceof HeapPage) {
+                ((HeapPage) page).detach();
+            }
+        }
+    }
 
+    private final Shard[] shards;
+    private final int numPages;
+    /** The ring each page cached through a {@link BufferRing} belongs to. */
+    private final Map<PageId, BufferRing> ringPages = new ConcurrentHashMap<>();
 
-    //I may use a map to track the
+    /**
+     * The rings of each transaction that were not released yet. Their pages
+     * are not in any replacer, so a ring that is never released would keep
+     * them cached for good.
+     */
+    private final Map<TransactionId, Set<BufferRing>> rings = new ConcurrentHashMap<>();
+    /** The pages each running transaction may have dirtied. */
+    private final Map<TransactionId, Set<PageId>> dirtiedPages = new ConcurrentHashMap<>();
+    /** Dirty pages evicted in STEAL mode whose write to disk has not completed yet. */
+    private final Map<PageId, Page> writeBack = new ConcurrentHashMap<>();
+    /** The running transactions some of whose dirty pages were written to disk. */
+    private final Set<TransactionId> stolenFrom = ConcurrentHashMap.newKeySet();
+    /** Aborting transactions whose pages the page cleaner must not write any more. */
+    private final Set<TransactionId> aborting = ConcurrentHashMap.newKeySet();
+    private final LockManager lockManager;
+    private final FrameArena frameArena;
+    private final boolean steal;
+    private final BufferPoolMetrics metrics = new BufferPoolMetrics(this);
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with a {@link ClockReplacer}. Large pools are split into shards of at
+     * least {@link #MIN_SHARD_PAGES} pages, at most one per processor.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, defaultShards(numPages), ClockReplacer::new);
+    }
+
+    /**
+     * Creates an unsharded BufferPool that caches up to numPages pages and
+     * lets replacer choose the pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacer the replacement policy; must be able to track
+     *          numPages pages and not be shared with another BufferPool
+     */
+    public BufferPool(int numPages, Replacer replacer) {
+        this(numPages, 1, capacity -> replacer);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of shards. Every shard holds an equal share of the pages and
+     * gets its own replacer.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards the number of shards, between 1 and numPages
+     * @param replacers creates the replacer of a shard from the shard's capacity
+     */
+    public BufferPool(int numPages, int numShards, IntFunction<Replacer> replacers) {
+        if (numShards < 1 || numShards > Math.max(1, numPages)) {
+            throw new IllegalArgumentException("cannot split " + numPages + " pages into " + numShards + " shards");
+        }
         this.numPages = numPages;
-        this.size = 0;
-        sentinel.next = sentinel;
-        sentinel.prev = sentinel;
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            int capacity = numPages / numShards + (i < numPages % numShards ? 1 : 0);
+            shards[i] = new Shard(capacity, replacers.apply(capacity));
+        }
         lockManager = new LockManager();
+        frameArena = new FrameArena(pageSize, offHeap ? FRAMES_PER_PAGE * numPages : 0);
+        steal = defaultSteal;
+    }
+
+    private static int defaultShards(int numPages) {
+        int shards = Math.min(Runtime.getRuntime().availableProcessors(), numPages / MIN_SHARD_PAGES);
+        return Math.max(1, shards);
+    }
+
+    private Shard shardOf(PageId pid) {
+        int h = pid.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
     }
 
     public static int getPageSize() {
       return pageSize;
     }
 
+    /**
+     * Returns the maximum number of pages in this buffer pool.
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Returns the number of shards this buffer pool is split into.
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the counters of what this pool does.
+     */
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of pages cached and the number of those that are
+     * dirty, counted without locking the shards.
+     */
+    int[] occupancy() {
+        int cached = 0;
+        int dirty = 0;
+        for (Shard shard : shards) {
+            for (Page page : shard.pages.values()) {
+                cached++;
+                if (page.isDirty() != null) {
+                    dirty++;
+                }
+            }
+        }
+        return new int[]{cached, dirty};
+    }
+
+    /**
+     * Returns the arena of off-heap frames the pages cached by this pool
+     * keep their bytes in.
+     */
+    public FrameArena getFrameArena() {
+        return frameArena;
+    }
+
+    /**
+     * Moves the bytes of a page the caller just cached into the arena; see
+     * {@link HeapPage}. The caller holds the shard's monitor.
+     */
+    private void attach(Page page) {
+        if (page instanceof HeapPage) {
+            ((HeapPage) page).attach(frameArena);
+        }
+    }
+
+    /**
+     * Sets whether BufferPools created from now on keep page bytes off the
+     * Java heap. On by default.
+     */
+    public static void setOffHeap(boolean enabled) {
+        offHeap = enabled;
+    }
+
+    /**
+     * Sets whether BufferPools created from now on may evict dirty pages
+     * (STEAL). A stolen page is written to disk only after its UPDATE record
+     * is forced to the log, and {@link LogFile#rollback} restores its before
+     * image if the transaction aborts. Off by default: without STEAL a
+     * transaction cannot dirty more pages than the pool holds.
+     */
+    public static void setSteal(boolean enabled) {
+        defaultSteal = enabled;
+    }
+
+    /**
+     * Returns true if this pool may evict dirty pages.
+     */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Creates a ring of frames for a scan of tid that should not disturb
+     * the rest of the cache; see {@link BufferRing}. The ring is released
+     * when tid completes if the scan did not release it before.
+     *
+     * @param pages the number of frames of the ring, at most a quarter of
+     *          the pool is used
+     */
+    public BufferRing newRing(TransactionId tid, int pages) {
+        BufferRing ring = new BufferRing(this, tid, Math.max(1, Math.min(pages, numPages / 4)));
+        rings.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(ring);
+        return ring;
+    }
+
+    /**
+     * Returns a ring for a scan of tid over a file of tablePages pages if
+     * the file is too large to be cached along with everything else, i.e.
+     * holds more than {@link #SCAN_RING_THRESHOLD} of the pool, and null
+     * otherwise.
+     */
+    public BufferRing scanRing(TransactionId tid, int tablePages) {
+        return tablePages > numPages * SCAN_RING_THRESHOLD ? newRing(tid, BufferRing.DEFAULT_PAGES) : null;
+    }
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
     	BufferPool.pageSize = pageSize;
@@ -101,75 +314,329 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but caches it in ring if it has to be read from disk.
+     *
+     * @param ring the ring of the calling scan, or null to use the whole pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        dNode node = bufferPool.get(pid);
-        boolean acquired = false;
         LockType lockType = perm == Permissions.READ_ONLY ? LockType.SHARED_LOCK : LockType.EXCLUSIVE_LOCK;
-        long start = System.currentTimeMillis();
-        long timeOut = new Random().nextInt(1000) + 2000;
-
-        while (!acquired) {
-            long now = System.currentTimeMillis();
-            if (now - start > timeOut) {
-                //transactionComplete(tid, false);
+        long waitStart = System.nanoTime();
+        try {
+            if (!lockManager.acquireLock(tid, pid, lockType)) {
+                // interrupted while waiting
                 throw new TransactionAbortedException();
             }
-            acquired = lockManager.acquireLock(tid, pid, lockType);
+        } catch (DeadlockException e) {
+            metrics.deadlocked();
+            throw new TransactionAbortedException();
         }
+        metrics.lockWaited(System.nanoTime() - waitStart);
         Debug.log("grant");
-        if (node == null) {
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            node = new dNode(pid, page);
-            put(pid, page);
-        }
-        return node.page;
-    }
-    private void put(PageId pid, Page page) {
-        dNode n = bufferPool.get(pid);
-        if (n == null) {
-            dNode newNode = new dNode(pid, page);
-            bufferPool.put(pid, newNode);
-            addToHead(newNode);
-            size++;
-            if (size > numPages) {
+        if (perm == Permissions.READ_WRITE) {
+            recordDirtied(tid, pid);
+        }
+        Shard shard = shardOf(pid);
+        Page page = shard.pages.get(pid);
+        if (page != null) {
+            metrics.hit(pid);
+            if (ring == null) {
+                recordAccess(shard, pid);
+            }
+            return page;
+        }
+        metrics.miss(pid);
+        // a page being stolen may not have reached the disk yet
+        page = writeBack.get(pid);
+        if (page != null) {
+            // the page cleaner writes with the log's monitor held: cache the
+            // page again under it, so that the cleaner has either finished
+            // writing it or finds it cached and leaves it alone
+            synchronized (Database.getLogFile()) {
+                return install(tid, shard, pid, writeBack.getOrDefault(pid, page), ring);
+            }
+        }
+        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        return install(tid, shard, pid, page, ring);
+    }
+
+    /**
+     * Tells the shard's replacer about a hit, adopting the page first if it
+     * was cached by a ring.
+     */
+    private void recordAccess(Shard shard, PageId pid) {
+        if (!ringPages.isEmpty() && ringPages.containsKey(pid)) {
+            synchronized (shard) {
+                BufferRing ring = ringPages.remove(pid);
+                if (ring != null) {
+                    ring.remove(pid);
+                    shard.replacer.add(pid);
+                    return;
+                }
+            }
+        }
+        shard.replacer.recordAccess(pid);
+    }
+
+    /**
+     * Adds a page read from disk to its shard, unless another thread cached
+     * it first.
+     *
+     * @param tid the transaction that requested the page; in STEAL mode its
+     *          own dirty pages may be evicted to make room
+     * @return the cached copy of the page
+     * @throws DbException if the shard is full and no page can be evicted
+     */
+    private Page install(TransactionId tid, Shard shard, PageId pid, Page page, BufferRing ring)
+            throws DbException {
+        if (ring != null && ring.isFull() && !recycle(ring)) {
+            // every page of the ring is dirty; the pool takes over the oldest
+            PageId oldest = ring.removeOldest();
+            if (oldest != null) {
+                Shard owner = shardOf(oldest);
+                synchronized (owner) {
+                    if (ringPages.remove(oldest) != null && owner.pages.containsKey(oldest)) {
+                        owner.replacer.add(oldest);
+                    }
+                }
+            }
+        }
+        Page stolen = null;
+        synchronized (shard) {
+            Page cached = shard.pages.get(pid);
+            if (cached != null) {
+                if (ring == null) {
+                    recordAccess(shard, pid);
+                }
+                return cached;
+            }
+            if (shard.pages.size() >= shard.capacity && (ring == null || !recycle(shard, ring))) {
+                stolen = evictPage(shard, tid);
+            }
+            shard.pages.put(pid, page);
+            attach(page);
+            if (ring == null || !addToRing(ring, pid)) {
+                shard.replacer.add(pid);
+            }
+        }
+        if (stolen != null) {
+            writeStolenPage(tid, stolen);
+        }
+        return page;
+    }
+
+    /**
+     * Records that a page cached in the caller's shard belongs to ring.
+     *
+     * @return false if the ring was released in the meantime
+     */
+    private boolean addToRing(BufferRing ring, PageId pid) {
+        if (!ring.add(pid)) {
+            return false;
+        }
+        ringPages.put(pid, ring);
+        return true;
+    }
+
+    /**
+     * Evicts the oldest clean page of ring. Locks on the page are kept:
+     * they belong to the transaction, not to the cached copy.
+     *
+     * @return false if every page of the ring is dirty
+     */
+    private boolean recycle(BufferRing ring) {
+        PageId victim = ring.victim(pid -> {
+            Page page = shardOf(pid).pages.get(pid);
+            return page == null || page.isDirty() == null;
+        });
+        if (victim == null) {
+            return false;
+        }
+        Shard owner = shardOf(victim);
+        synchronized (owner) {
+            if (ringPages.remove(victim, ring)) {
+                owner.remove(victim);
+                metrics.evicted();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evicts the oldest clean page of ring that lives in shard. The caller
+     * holds the shard's monitor; a prefetch may have filled the ring again
+     * since the caller last recycled it.
+     *
+     * @return false if the ring has no such page
+     */
+    private boolean recycle(Shard shard, BufferRing ring) {
+        PageId victim = ring.victim(pid -> {
+            Page page = shardOf(pid) == shard ? shard.pages.get(pid) : null;
+            return page != null && page.isDirty() == null;
+        });
+        if (victim == null) {
+            return false;
+        }
+        if (ringPages.remove(victim, ring)) {
+            shard.remove(victim);
+            metrics.evicted();
+        }
+        return true;
+    }
+
+    /**
+     * Gives the frames of a ring back; see {@link BufferRing#release()}.
+     */
+    void releaseRing(BufferRing ring) {
+        rings.computeIfPresent(ring.tid, (t, open) -> {
+            open.remove(ring);
+            return open.isEmpty() ? null : open;
+        });
+        for (PageId pid : ring.drain()) {
+            Shard owner = shardOf(pid);
+            synchronized (owner) {
+                if (!ringPages.remove(pid, ring)) {
+                    continue;
+                }
+                Page page = owner.pages.get(pid);
+                if (page == null) {
+                    continue;
+                }
+                if (page.isDirty() == null) {
+                    owner.remove(pid);
+                } else {
+                    owner.replacer.add(pid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a page tid just modified dirty and caches it, replacing any
+     * other copy of it. The page is marked under the shard's monitor: the
+     * page cleaner may have evicted it while tid was modifying it, and
+     * marks it dirty again under the same monitor if it finds it cached
+     * after writing it.
+     */
+    private void put(TransactionId tid, PageId pid, Page page) throws DbException {
+        Shard shard = shardOf(pid);
+        Page stolen = null;
+        synchronized (shard) {
+            page.markDirty(true, tid);
+            Page previous = shard.pages.put(pid, page);
+            if (previous != null) {
+                if (previous != page) {
+                    Shard.detach(previous);
+                    attach(page);
+                }
+                if (!ringPages.containsKey(pid)) {
+                    shard.replacer.recordAccess(pid);
+                }
+                return;
+            }
+            if (shard.pages.size() > shard.capacity) {
                 try {
-                    evictPage();
+                    stolen = evictPage(shard, tid);
                 } catch (DbException e) {
-                    e.printStackTrace();
+                    shard.remove(pid);
+                    throw e;
                 }
             }
-        } else {
-            n.page = page;
-            moveToHead(n);
+            attach(page);
+            shard.replacer.add(pid);
+        }
+        if (stolen != null) {
+            writeStolenPage(tid, stolen);
         }
-    }
-    private void addToHead(dNode node) {
-        node.prev = sentinel;
-        node.next = sentinel.next;
-        sentinel.next.prev = node;
-        sentinel.next = node;
     }
 
-    private void moveToHead(dNode node) {
-        //move this node to head
-        removeNode(node);
-        node.prev = sentinel;
-        node.next = sentinel.next;
-        sentinel.next.prev = node;
-        sentinel.next = node;
+    /**
+     * Best-effort read-ahead: bring the specified page into the buffer pool
+     * without locking it on behalf of any transaction. Does nothing if the
+     * page is already cached or being prefetched, and drops the page read if
+     * a cached copy left the pool meanwhile, since the disk may then hold a
+     * newer version than the one read. If the pool is full, only a clean page that no
+     * transaction holds a lock on may be evicted to make room; if there is
+     * no such page, the prefetch is dropped rather than evicting anything a
+     * running transaction depends on.
+     *
+     * @param pid the ID of the page to prefetch
+     * @see ReadAheadPrefetcher
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPage(pid, null);
     }
 
-    private void removeNode(dNode node) {
-        node.prev.next = node.next;
-        node.next.prev = node.prev;
+    /**
+     * Prefetches a page like {@link #prefetchPage(PageId)} into the ring of
+     * the scan that is going to read it. Room is only made by recycling a
+     * clean page of the ring.
+     *
+     * @param ring the ring of the scan, or null to use the whole pool
+     */
+    public void prefetchPage(PageId pid, BufferRing ring) {
+        Shard shard = shardOf(pid);
+        // the page is read without a lock: if it is cached, changed,
+        // written and evicted meanwhile, the copy read is stale
+        if (shard.prefetching.putIfAbsent(pid, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            if (shard.pages.containsKey(pid) || writeBack.containsKey(pid)) {
+                return;
+            }
+            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            if (page == null) {
+                return;
+            }
+            if (ring != null && (ring.isReleased() || ring.isFull() && !recycle(ring))) {
+                return;
+            }
+            synchronized (shard) {
+                if (shard.pages.containsKey(pid) || !shard.prefetching.get(pid)) {
+                    return;
+                }
+                if (shard.pages.size() >= shard.capacity
+                        && (ring == null || !recycle(shard, ring)) && !evictUnpinnedPage(shard)) {
+                    return;
+                }
+                shard.pages.put(pid, page);
+                attach(page);
+                if (ring == null) {
+                    shard.replacer.add(pid);
+                } else if (!addToRing(ring, pid)) {
+                    shard.remove(pid);
+                }
+            }
+        } finally {
+            shard.prefetching.remove(pid);
+        }
     }
 
-    private dNode removeTail() {
-        dNode tail = sentinel.prev;
-        removeNode(tail);
-        return tail;
+    /**
+     * Evicts a page of the shard that is clean and not locked by any
+     * transaction. The caller holds the shard's monitor.
+     *
+     * @return false if every page of the shard is dirty or locked
+     */
+    private boolean evictUnpinnedPage(Shard shard) {
+        PageId victim = shard.replacer.victim(pid -> {
+            Page page = shard.pages.get(pid);
+            return page != null && page.isDirty() == null && !lockManager.isLocked(pid);
+        });
+        if (victim == null) {
+            return false;
+        }
+        shard.remove(victim);
+        metrics.evicted();
+        return true;
     }
 
     /**
@@ -211,20 +678,40 @@ public class BufferPool {
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws UncheckedIOException if the commit could not write the
+     *          transaction's pages; it is rolled back instead
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        if (commit) {
-            //flush all dirty pages related to this tid
-            flushPages(tid);
-        } else {
-            //revert any changes made by this transaction by restoring the page to its on-disk state
+        try {
+            if (commit) {
+                //flush all dirty pages related to this tid
+                flushPages(tid);
+            } else {
+                //revert any changes made by this transaction by restoring the page to its on-disk state
+                restorePages(tid);
+            }
+        } catch (IOException e) {
+            // some pages may be on disk already, their UPDATE records forced
+            // before them; roll those back like stolen pages
+            stolenFrom.add(tid);
             restorePages(tid);
+            throw new UncheckedIOException("commit of transaction " + tid.getId() + " failed, rolled back", e);
+        } finally {
+            // rings of scans that were never closed, e.g. because they aborted
+            Set<BufferRing> open = rings.remove(tid);
+            if (open != null) {
+                for (BufferRing ring : open) {
+                    releaseRing(ring);
+                }
+            }
+            dirtiedPages.remove(tid);
+            stolenFrom.remove(tid);
+            aborting.remove(tid);
+            //release all locks the transaction is holding
+            lockManager.releaseAllLocks(tid);
         }
-        //release all locks the transaction is holding
-        lockManager.releaseAllLocks(tid);
-
     }
 
     /**
@@ -248,8 +735,8 @@ public class BufferPool {
                 .insertTuple(tid, t);
 
         for (Page dirtyPage : dirtyPages) {
-            dirtyPage.markDirty(true, tid);
-            put(dirtyPage.getId(), dirtyPage);
+            recordDirtied(tid, dirtyPage.getId());
+            put(tid, dirtyPage.getId(), dirtyPage);
         }
     }
 
@@ -273,8 +760,8 @@ public class BufferPool {
         HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pageId.getTableId());
         ArrayList<Page> pages = heapFile.deleteTuple(tid, t);
         for (Page page : pages) {
-            page.markDirty(true, tid);
-            put(pageId, page);
+            recordDirtied(tid, page.getId());
+            put(tid, pageId, page);
         }
     }
 
@@ -283,15 +770,18 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (Map.Entry<PageId, dNode> group : bufferPool.entrySet()) {
-            Page page = group.getValue().page;
-            if (page.isDirty() != null) {
-                this.flushPage(group.getKey());
+        List<Page> dirtyPages = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (Page page : shard.pages.values()) {
+                if (page.isDirty() != null) {
+                    dirtyPages.add(page);
+                }
             }
         }
+        writeDirtyPages(dirtyPages);
 
     }
 
@@ -303,16 +793,25 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
         if (pid == null) {
             return;
         }
-        bufferPool.remove(pid);
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            shard.remove(pid);
+            BufferRing ring = ringPages.remove(pid);
+            if (ring != null) {
+                ring.remove(pid);
+            } else {
+                shard.replacer.remove(pid);
+            }
+        }
     }
 
-    public synchronized void test() {
+    public void test() {
         System.out.println("fuck");
     }
 
@@ -320,10 +819,10 @@ public class BufferPool {
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid)  {
+    private void flushPage(PageId pid)  {
         // some code goes here
         // not necessary for lab1
-        Page pageToBeFlushed = bufferPool.get(pid).page;
+        Page pageToBeFlushed = shardOf(pid).pages.get(pid);
         TransactionId dirty = pageToBeFlushed.isDirty();
         if (dirty != null) {
 //            Page before = pageToBeFlushed.getBeforeImage();
@@ -340,42 +839,288 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Remembers that tid may dirty the page, so that commit and abort only
+     * have to look at the pages the transaction touched.
+     */
+    private void recordDirtied(TransactionId tid, PageId pid) {
+        dirtiedPages.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Returns the cached pages tid may have dirtied.
+     */
+    private List<Page> dirtiedBy(TransactionId tid) {
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : dirtiedPages.getOrDefault(tid, Collections.emptySet())) {
+            Page page = shardOf(pid).pages.get(pid);
+            if (page == null) {
+                // a stolen page whose write failed is still the latest copy
+                page = writeBack.get(pid);
+            }
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        return pages;
+    }
+
     /** Write all pages of the specified transaction to disk.
+     *
+     * @throws IOException if a page could not be logged or written; the
+     *          pages then stay dirty and keep their before images
      */
-    public synchronized void flushPages(TransactionId tid) {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for (PageId pid : bufferPool.keySet()) {
-            Page page = bufferPool.get(pid).page;
-            page.setBeforeImage();
+        List<Page> pages = dirtiedBy(tid);
+        List<Page> dirtyPages = new ArrayList<>();
+        for (Page page : pages) {
             if (page.isDirty() == tid) {
-                flushPage(pid);
+                dirtyPages.add(page);
             }
         }
+        writeDirtyPages(dirtyPages);
+        // the committed contents are what later transactions roll back to
+        for (Page page : pages) {
+            page.setBeforeImage();
+        }
     }
-    public synchronized void restorePages(TransactionId tid) {
-        for (PageId pid : bufferPool.keySet()) {
-            Page page = bufferPool.get(pid).page;
 
+    /**
+     * Logs the given dirty pages, forces the log once, and then writes the
+     * pages of each file in one batch, so that the file can turn runs of
+     * adjacent pages into sequential writes. Must not be called with a shard
+     * locked: the log is locked while rollback discards pages.
+     */
+    private void writeDirtyPages(List<Page> dirtyPages) throws IOException {
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+        // under the log's monitor, the page cleaner is not writing any of
+        // the pages at the same time
+        synchronized (Database.getLogFile()) {
+            Map<Integer, List<Page>> byTable = new LinkedHashMap<>();
+            for (Page page : dirtyPages) {
+                TransactionId dirtier = page.isDirty();
+                if (dirtier == null) {
+                    continue;
+                }
+                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+                byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+            }
+            if (byTable.isEmpty()) {
+                return;
+            }
+            Database.getLogFile().force();
+            for (Map.Entry<Integer, List<Page>> table : byTable.entrySet()) {
+                Database.getCatalog().getDatabaseFile(table.getKey()).writePages(table.getValue());
+                metrics.flushed(table.getValue().size());
+            }
+        }
+    }
+    public void restorePages(TransactionId tid) {
+        boolean stolen;
+        synchronized (Database.getLogFile()) {
+            // the page cleaner writes under the log's monitor, so from here
+            // on it leaves tid's pages alone
+            aborting.add(tid);
+            dropWriteBack(tid);
+            stolen = stolenFrom.contains(tid);
+        }
+        if (stolen) {
+            // the disk holds some of tid's changes; Transaction aborts roll
+            // back through LogFile.logAbort before they get here
+            try {
+                Database.getLogFile().rollback(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Page page : dirtiedBy(tid)) {
             if (page.isDirty() == tid) {
-                int tableId = pid.getTableId();
-                DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+                PageId pid = page.getId();
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
                 Page pageFromDisk = file.readPage(pid);
-                put(pid, pageFromDisk);
+                Shard shard = shardOf(pid);
+                synchronized (shard) {
+                    if (shard.pages.replace(pid, page, pageFromDisk)) {
+                        Shard.detach(page);
+                        attach(pageFromDisk);
+                    }
+                }
             }
         }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Called by {@link LogFile#rollback}, with the log's monitor held, once
+     * the before images of tid's stolen pages are back on disk.
+     */
+    void rolledBack(TransactionId tid) {
+        aborting.add(tid);
+        stolenFrom.remove(tid);
+        dropWriteBack(tid);
+    }
+
+    /**
+     * Forgets the pages of an aborting transaction the page cleaner has
+     * evicted but not written yet, so that nobody reads them back. The
+     * caller holds the log's monitor.
+     */
+    private void dropWriteBack(TransactionId tid) {
+        writeBack.values().removeIf(page -> tid.equals(page.isDirty()));
+    }
+
+    /**
+     * Marks a page the cleaner wrote dirty again if its transaction, which
+     * may have been modifying it during the write, cached it again with
+     * {@link #put} in the meantime.
+     */
+    private void redirtyIfCached(Page page, TransactionId tid) {
+        Shard shard = shardOf(page.getId());
+        synchronized (shard) {
+            if (shard.pages.get(page.getId()) == page) {
+                page.markDirty(true, tid);
+            }
+        }
+    }
+
+    /**
+     * Returns true if tid has not completed and has not started to abort.
+     */
+    private boolean isRunning(TransactionId tid) {
+        return tid != null && dirtiedPages.containsKey(tid) && !aborting.contains(tid);
+    }
+
+    /**
+     * Evicts dirty pages of running transactions from the shards of which
+     * less than {@link #CLEAN_RESERVE} is free or clean, and writes them in
+     * page-number order, so that misses find room without having to write.
+     * The pages are chosen by each shard's replacer, i.e. the cleaner sweeps
+     * just ahead of the pages the replacer would evict next. The UPDATE
+     * records are forced before the pages are written, all under the log's
+     * monitor, so that a transaction that starts to abort either rolls the
+     * written pages back or has them skipped. Does nothing unless the pool
+     * runs in STEAL mode.
      *
-     * I should evict the Least Recently Used page
-     * every time the bufferPool interact with a page
-     * the page should be to the front of this dlinkedList
-     * when evict, evict the Least Recently Used page and flush it to disk if it is dirty
+     * @param maxPages the most pages to write
+     * @return the number of pages written
+     * @see PageCleaner
      */
-    private synchronized void evictPage() throws DbException {
+    int cleanPages(int maxPages) throws IOException {
+        if (!steal) {
+            return 0;
+        }
+        List<Page> victims = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                int clean = shard.capacity - shard.pages.size();
+                for (Page page : shard.pages.values()) {
+                    if (page.isDirty() == null) {
+                        clean++;
+                    }
+                }
+                int reserve = (int) Math.ceil(shard.capacity * CLEAN_RESERVE);
+                while (clean < reserve && victims.size() < maxPages) {
+                    PageId victim = shard.replacer.victim(pid -> {
+                        Page page = shard.pages.get(pid);
+                        return page != null && isRunning(page.isDirty());
+                    });
+                    if (victim == null) {
+                        break;
+                    }
+                    Page page = shard.pages.get(victim);
+                    metrics.evictedDirty();
+                    writeBack.put(victim, page);
+                    shard.remove(victim);
+                    victims.add(page);
+                    clean++;
+                }
+            }
+        }
+        if (victims.isEmpty()) {
+            return 0;
+        }
+        victims.sort(Comparator.comparingInt((Page page) -> page.getId().getTableId())
+                .thenComparingInt(page -> page.getId().getPageNumber()));
+        LogFile log = Database.getLogFile();
+        int written = 0;
+        synchronized (log) {
+            try {
+                Map<Integer, List<Page>> byTable = new LinkedHashMap<>();
+                Map<Page, TransactionId> tids = new IdentityHashMap<>();
+                for (Page page : victims) {
+                    TransactionId tid = page.isDirty();
+                    // a page that committed meanwhile was written by the
+                    // commit; one that is aborting must not reach the disk;
+                    // one that was cached again may be modified while written
+                    if (!isRunning(tid) || shardOf(page.getId()).pages.get(page.getId()) == page) {
+                        continue;
+                    }
+                    stolenFrom.add(tid);
+                    tids.put(page, tid);
+                    log.logWrite(tid, page.getBeforeImage(), page);
+                    byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+                }
+                if (!byTable.isEmpty()) {
+                    log.force();
+                }
+                for (Map.Entry<Integer, List<Page>> table : byTable.entrySet()) {
+                    Database.getCatalog().getDatabaseFile(table.getKey()).writePages(table.getValue());
+                    metrics.flushed(table.getValue().size());
+                    written += table.getValue().size();
+                    for (Page page : table.getValue()) {
+                        redirtyIfCached(page, tids.get(page));
+                    }
+                }
+            } finally {
+                // still under the monitor: once a rollback can run, readers
+                // must not find the transaction's pages here any more
+                for (Page page : victims) {
+                    writeBack.remove(page.getId(), page);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes a page of tid that evictPage took out of its shard: the UPDATE
+     * record is forced to the log before the page reaches the disk. Must
+     * not be called with a shard locked, see {@link #writeDirtyPages}. Locks
+     * on the page are kept, since tid is still running.
+     *
+     * @throws DbException if the page could not be written; it then stays
+     *          where getPage and commit find it
+     */
+    private void writeStolenPage(TransactionId tid, Page page) throws DbException {
+        PageId pid = page.getId();
+        try {
+            stolenFrom.add(tid);
+            Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+            Database.getLogFile().force();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            metrics.flushed(1);
+        } catch (IOException e) {
+            throw new DbException("could not write stolen page " + pid + ": " + e.getMessage());
+        }
+        writeBack.remove(pid, page);
+    }
+
+    /**
+     * Discards a page from the shard. The caller holds the shard's monitor.
+     * The replacer picks the page among the clean ones. If all of them are
+     * dirty, a NO STEAL pool gives up, while a STEAL pool takes one of the
+     * pages tid dirtied out of the shard and returns it, and the caller then
+     * has to write it with {@link #writeStolenPage} once it released the
+     * monitor. Only the requesting transaction's own pages are stolen, so a
+     * page is never written while the transaction that dirtied it aborts.
+     *
+     * @param tid the transaction that needs the room, or null if none
+     * @return the dirty page that was evicted, or null if a clean page was
+     */
+    private Page evictPage(Shard shard, TransactionId tid) throws DbException {
 
 //        dNode tail = removeTail();
 //        bufferPool.remove(tail.pageId);
@@ -388,17 +1133,32 @@ public class BufferPool {
 //            }
 //        }
 
-        for (dNode tail = sentinel.prev; tail != sentinel; tail = tail.prev) {
-            if (tail.page.isDirty() == null) {
-                removeNode(tail);
-                bufferPool.remove(tail.pageId);
-                size--;
-                //deal with the locks holding by the transaction
-                lockManager.releaseLocksOnaPage(tail.pageId);
-                return;
+        PageId victim = shard.replacer.victim(pid -> {
+            Page page = shard.pages.get(pid);
+            return page != null && page.isDirty() == null;
+        });
+        if (victim == null && steal && tid != null) {
+            victim = shard.replacer.victim(pid -> {
+                Page page = shard.pages.get(pid);
+                return page != null && tid.equals(page.isDirty());
+            });
+            if (victim != null) {
+                // publish the page before it leaves the shard, so that
+                // readers never fetch the stale copy on disk
+                Page page = shard.pages.get(victim);
+                metrics.evictedDirty();
+                writeBack.put(victim, page);
+                shard.remove(victim);
+                return page;
             }
         }
-        //all pages are dirty
-        throw new DbException("All pages are dirty, couldn't evict any page");
+        if (victim == null) {
+            //all pages are dirty
+            throw new DbException("All pages are dirty, couldn't evict any page");
+        }
+        // locks on the page belong to transactions, not to the cached copy
+        shard.remove(victim);
+        metrics.evicted();
+        return null;
     }
 }
@@ -0,0 +1,313 @@
+package simpledb.storage;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BufferPoolMetrics counts what a BufferPool does: hits and misses per
+ * table, evictions, pages written, and how long getPage waited for locks.
+ * The counters are LongAdders, which spread concurrent updates over
+ * separate cells, so recording costs about as much as the map lookup of a
+ * hit and the metrics can stay on all the time.
+ * <p>
+ * {@link #snapshot()} sums the counters into an immutable {@link Snapshot},
+ * together with the pool's current occupancy; {@link #startDump} prints a
+ * snapshot periodically. The counters only ever grow, so the difference of
+ * two snapshots describes the interval between them.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolMetrics {
+
+    /**
+     * Number of buckets of the lock wait histogram. Bucket 0 counts waits
+     * under a microsecond, bucket b > 0 waits of [2^(b-1), 2^b) microseconds,
+     * and the last bucket everything longer.
+     */
+    public static final int WAIT_BUCKETS = 24;
+
+    private static final class TableCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+    }
+
+    private final BufferPool pool;
+    private final Map<Integer, TableCounters> tables = new ConcurrentHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder dirtyEvictions = new LongAdder();
+    private final LongAdder pagesFlushed = new LongAdder();
+    private final LongAdder deadlocks = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder[] lockWaits = new LongAdder[WAIT_BUCKETS];
+    private ScheduledExecutorService dumper;
+
+    BufferPoolMetrics(BufferPool pool) {
+        this.pool = pool;
+        for (int i = 0; i < WAIT_BUCKETS; i++) {
+            lockWaits[i] = new LongAdder();
+        }
+    }
+
+    private TableCounters table(PageId pid) {
+        TableCounters counters = tables.get(pid.getTableId());
+        return counters != null ? counters : tables.computeIfAbsent(pid.getTableId(), t -> new TableCounters());
+    }
+
+    void hit(PageId pid) {
+        table(pid).hits.increment();
+    }
+
+    void miss(PageId pid) {
+        table(pid).misses.increment();
+    }
+
+    /** Records the eviction of a clean page. */
+    void evicted() {
+        evictions.increment();
+    }
+
+    /** Records the eviction of a dirty page, which then has to be written. */
+    void evictedDirty() {
+        dirtyEvictions.increment();
+    }
+
+    void flushed(int pages) {
+        pagesFlushed.add(pages);
+    }
+
+    /** Records how long getPage waited until it was granted a lock. */
+    void lockWaited(long nanos) {
+        lockWaitNanos.add(nanos);
+        lockWaits[bucket(nanos / 1000)].increment();
+    }
+
+    /** Records a lock request aborted to break a deadlock. */
+    void deadlocked() {
+        deadlocks.increment();
+    }
+
+    static int bucket(long micros) {
+        return Math.min(WAIT_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the smallest wait, in microseconds, that no longer falls into
+     * the given bucket of the lock wait histogram.
+     */
+    public static long bucketLimitMicros(int bucket) {
+        return bucket == WAIT_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Sums the counters up. Counters updated while the snapshot is taken may
+     * or may not be included, so it is not exactly consistent.
+     */
+    public Snapshot snapshot() {
+        Map<Integer, long[]> perTable = new TreeMap<>();
+        for (Map.Entry<Integer, TableCounters> e : tables.entrySet()) {
+            perTable.put(e.getKey(), new long[]{e.getValue().hits.sum(), e.getValue().misses.sum()});
+        }
+        long[] waits = new long[WAIT_BUCKETS];
+        for (int i = 0; i < WAIT_BUCKETS; i++) {
+            waits[i] = lockWaits[i].sum();
+        }
+        int[] occupancy = pool.occupancy();
+        return new Snapshot(perTable, evictions.sum(), dirtyEvictions.sum(), pagesFlushed.sum(),
+                deadlocks.sum(), lockWaitNanos.sum(), waits,
+                occupancy[0], occupancy[1], pool.getNumPages(), pool.getFrameArena().exhausted());
+    }
+
+    /**
+     * Prints a snapshot to out every periodMillis ms from a background
+     * thread, until {@link #stopDump()} is called. Replaces an earlier dump.
+     */
+    public synchronized void startDump(long periodMillis, PrintStream out) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simpledb-metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> out.println(snapshot()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * The metrics of a BufferPool at one point in time.
+     */
+    public static final class Snapshot {
+        private final Map<Integer, long[]> perTable;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long dirtyEvictions;
+        private final long pagesFlushed;
+        private final long deadlocks;
+        private final long lockWaitNanos;
+        private final long[] lockWaits;
+        private final int cachedPages;
+        private final int dirtyPages;
+        private final int capacity;
+        private final long arenaExhausted;
+
+        Snapshot(Map<Integer, long[]> perTable, long evictions, long dirtyEvictions, long pagesFlushed,
+                 long deadlocks, long lockWaitNanos, long[] lockWaits,
+                 int cachedPages, int dirtyPages, int capacity, long arenaExhausted) {
+            this.perTable = Collections.unmodifiableMap(perTable);
+            long h = 0, m = 0;
+            for (long[] counts : perTable.values()) {
+                h += counts[0];
+                m += counts[1];
+            }
+            this.hits = h;
+            this.misses = m;
+            this.evictions = evictions;
+            this.dirtyEvictions = dirtyEvictions;
+            this.pagesFlushed = pagesFlushed;
+            this.deadlocks = deadlocks;
+            this.lockWaitNanos = lockWaitNanos;
+            this.lockWaits = lockWaits;
+            this.cachedPages = cachedPages;
+            this.dirtyPages = dirtyPages;
+            this.capacity = capacity;
+            this.arenaExhausted = arenaExhausted;
+        }
+
+        /** Returns the page requests served from the pool. */
+        public long hits() {
+            return hits;
+        }
+
+        /** Returns the page requests that had to read the page. */
+        public long misses() {
+            return misses;
+        }
+
+        public long hits(int tableId) {
+            long[] counts = perTable.get(tableId);
+            return counts == null ? 0 : counts[0];
+        }
+
+        public long misses(int tableId) {
+            long[] counts = perTable.get(tableId);
+            return counts == null ? 0 : counts[1];
+        }
+
+        /** Returns the ids of the tables pages were requested from. */
+        public Iterable<Integer> tableIds() {
+            return perTable.keySet();
+        }
+
+        /** Returns the share of page requests that were hits, or 0 if there were none. */
+        public double hitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        /** Returns the clean pages evicted, including those recycled by rings. */
+        public long evictions() {
+            return evictions;
+        }
+
+        /** Returns the dirty pages evicted in STEAL mode, by misses or the page cleaner. */
+        public long dirtyEvictions() {
+            return dirtyEvictions;
+        }
+
+        /** Returns the dirty pages written to disk, for whatever reason. */
+        public long pagesFlushed() {
+            return pagesFlushed;
+        }
+
+        /** Returns the lock requests aborted to break a deadlock. */
+        public long deadlocks() {
+            return deadlocks;
+        }
+
+        /** Returns the locks getPage was granted. */
+        public long lockGrants() {
+            long n = 0;
+            for (long count : lockWaits) {
+                n += count;
+            }
+            return n;
+        }
+
+        /** Returns the total time getPage waited for the locks it was granted. */
+        public long lockWaitNanos() {
+            return lockWaitNanos;
+        }
+
+        /**
+         * Returns the number of lock grants per bucket of waiting time; see
+         * {@link #WAIT_BUCKETS}.
+         */
+        public long[] lockWaitHistogram() {
+            return lockWaits.clone();
+        }
+
+        /**
+         * Returns an upper bound, in microseconds, of the given quantile of
+         * the lock waits, i.e. the limit of the bucket it falls into.
+         *
+         * @param q between 0 and 1, e.g. 0.99
+         */
+        public long lockWaitQuantileMicros(double q) {
+            long rank = (long) Math.ceil(q * lockGrants());
+            long seen = 0;
+            for (int b = 0; b < WAIT_BUCKETS; b++) {
+                seen += lockWaits[b];
+                if (seen >= rank && seen > 0) {
+                    return bucketLimitMicros(b);
+                }
+            }
+            return 0;
+        }
+
+        public int cachedPages() {
+            return cachedPages;
+        }
+
+        public int dirtyPages() {
+            return dirtyPages;
+        }
+
+        /** Returns the most pages the pool holds. */
+        public int capacity() {
+            return capacity;
+        }
+
+        /** Returns how often a cached page found no free off-heap frame and stayed on the heap. */
+        public long arenaExhausted() {
+            return arenaExhausted;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("bufferpool: %d/%d pages (%d dirty), %d hits, %d misses (%.1f%% hits), "
+                            + "%d evictions, %d dirty evictions, %d pages flushed, "
+                            + "%d lock grants (p50 < %d us, p99 < %d us), %d deadlocks, %d arena exhausted",
+                    cachedPages, capacity, dirtyPages, hits, misses, 100 * hitRatio(),
+                    evictions, dirtyEvictions, pagesFlushed,
+                    lockGrants(), lockWaitQuantileMicros(0.5), lockWaitQuantileMicros(0.99), deadlocks,
+                    arenaExhausted));
+            for (Map.Entry<Integer, long[]> e : perTable.entrySet()) {
+                sb.append(String.format("%n  table %d: %d hits, %d misses", e.getKey(), e.getValue()[0], e.getValue()[1]));
+            }
+            return sb.toString();
+        }
+    }
+}
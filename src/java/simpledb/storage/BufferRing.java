@@ -0,0 +1,122 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import simpledb.transaction.TransactionId;
+
+/**
+ * A BufferRing is a small set of BufferPool frames private to one large
+ * scan. Pages the scan reads through the ring are cached in it instead of
+ * being handed to the pool's {@link Replacer}: once the ring is full, the
+ * scan's next page replaces the oldest clean page of the ring. A scan over a
+ * table much larger than the pool therefore only ever occupies the ring's
+ * frames and leaves the rest of the cache, e.g. the working set of short
+ * transactions, alone.
+ * <p>
+ * Pages already cached when the scan asks for them are used where they
+ * are. A page of the ring that some other reader asks for without going
+ * through the ring is adopted by the pool's replacer.
+ * <p>
+ * Rings are created by {@link BufferPool#newRing} or
+ * {@link BufferPool#scanRing} for a transaction, and given back with
+ * {@link #release()} when the scan is done. A scan that never gets there,
+ * e.g. because its transaction aborted, gives its ring back when the
+ * transaction completes.
+ *
+ * @Threadsafe, all fields are guarded by the ring's monitor
+ */
+public class BufferRing {
+
+    /** Number of frames of a ring unless a scan asks for a different size. */
+    public static final int DEFAULT_PAGES = 16;
+
+    private final BufferPool pool;
+    /** The transaction whose completion releases the ring at the latest. */
+    final TransactionId tid;
+    private final int capacity;
+    /** Pages cached in the ring, oldest first. */
+    private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+    private boolean released;
+
+    BufferRing(BufferPool pool, TransactionId tid, int capacity) {
+        this.pool = pool;
+        this.tid = tid;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of frames this ring recycles.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Gives the ring's frames back to the BufferPool: its clean pages leave
+     * the cache, the pages that were dirtied stay as ordinary cached pages.
+     * Releasing a ring twice has no effect.
+     */
+    public void release() {
+        pool.releaseRing(this);
+    }
+
+    synchronized boolean isReleased() {
+        return released;
+    }
+
+    synchronized boolean isFull() {
+        return pages.size() >= capacity;
+    }
+
+    /**
+     * Appends a page to the ring.
+     *
+     * @return false if the ring was released, and the page not added
+     */
+    synchronized boolean add(PageId pid) {
+        if (released) {
+            return false;
+        }
+        pages.addLast(pid);
+        return true;
+    }
+
+    synchronized void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    /**
+     * Removes and returns the oldest page evictable accepts, or null.
+     */
+    synchronized PageId victim(Predicate<PageId> evictable) {
+        for (Iterator<PageId> it = pages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the oldest page of the ring.
+     */
+    synchronized PageId removeOldest() {
+        return pages.pollFirst();
+    }
+
+    /**
+     * Marks the ring as released and returns the pages it still held.
+     */
+    synchronized List<PageId> drain() {
+        released = true;
+        List<PageId> held = new ArrayList<>(pages);
+        pages.clear();
+        return held;
+    }
+}
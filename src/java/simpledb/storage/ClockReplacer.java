@@ -0,0 +1,113 @@
+package simpledb.storage;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Approximates LRU with the CLOCK (second chance) algorithm. Tracked pages sit
+ * in a fixed array of frames, each with a reference bit. A hit only sets the
+ * bit of the page's frame; the clock hand sweeps the frames, clears the bits
+ * it passes, and evicts the first page whose bit was already clear.
+ * <p>
+ * No method takes a lock: reference bits are atomic, frames are claimed and
+ * given up with compare-and-set, and the hand is an atomic counter, so any
+ * number of threads can record hits and look for victims at the same time.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacer implements Replacer {
+
+    private final AtomicReferenceArray<PageId> frames;
+    private final AtomicIntegerArray referenced;
+    private final Map<PageId, Integer> frameOf = new ConcurrentHashMap<>();
+    private final Queue<Integer> freeFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger hand = new AtomicInteger();
+
+    /**
+     * @param capacity the most pages this replacer tracks at once, i.e. the
+     *          size of the buffer pool
+     */
+    public ClockReplacer(int capacity) {
+        frames = new AtomicReferenceArray<>(capacity);
+        referenced = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if all frames are in use
+     */
+    @Override
+    public void add(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            throw new IllegalStateException("all " + frames.length() + " frames are in use");
+        }
+        referenced.set(frame, 1);
+        frames.set(frame, pid);
+        if (frameOf.putIfAbsent(pid, frame) != null) {
+            // another thread added the page first
+            frames.set(frame, null);
+            freeFrames.add(frame);
+        }
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, 1);
+        }
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null) {
+            return;
+        }
+        // compareAndSet compares references, so use the id the frame holds
+        PageId held = frames.get(frame);
+        if (pid.equals(held) && frames.compareAndSet(frame, held, null)) {
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Sweeps at most twice around the clock: once to clear reference bits
+     * and once more to find a page that has not been used since.
+     */
+    @Override
+    public PageId victim(Predicate<PageId> evictable) {
+        int n = frames.length();
+        for (int step = 0; step < 2 * n; step++) {
+            int frame = Math.floorMod(hand.getAndIncrement(), n);
+            PageId pid = frames.get(frame);
+            if (pid == null || referenced.getAndSet(frame, 0) != 0 || !evictable.test(pid)) {
+                continue;
+            }
+            if (frames.compareAndSet(frame, pid, null)) {
+                frameOf.remove(pid, frame);
+                freeFrames.add(frame);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return frameOf.size();
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -33,6 +34,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Pushes several pages of this file to disk. Files that can write
+     * adjacent pages in one request should override this; by default the
+     * pages are written one at a time.
+     *
+     * @param pages the pages to write, in any order
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +88,76 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that only
+     * holds the given columns, in the order they are listed; the tuples have
+     * the TupleDesc {@code getTupleDesc().project(columns)}.
+     *
+     * @param columns indexes of the fields to return, or null for all of them
+     * @return an iterator over the projected tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid, columns, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * every predicate, holding only the given columns. Files that can decode
+     * single columns or test predicates on page bytes should override this;
+     * by default full tuples are read, filtered and then cut down.
+     *
+     * @param columns indexes of the fields to return, or null for all of them
+     * @param predicates conditions on the columns of {@link #getTupleDesc()}
+     *          that all have to hold, or null
+     * @return an iterator over the matching, projected tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        final DbFileIterator it = iterator(tid);
+        if (columns == null && (predicates == null || predicates.isEmpty())) {
+            return it;
+        }
+        final TupleDesc projected = columns == null ? null : getTupleDesc().project(columns);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple full = it.next();
+                    boolean match = true;
+                    for (int i = 0; predicates != null && match && i < predicates.size(); i++) {
+                        match = predicates.get(i).filter(full);
+                    }
+                    if (!match) {
+                        continue;
+                    }
+                    if (projected == null) {
+                        return full;
+                    }
+                    Tuple t = new Tuple(projected);
+                    t.setRecordId(full.getRecordId());
+                    for (int i = 0; i < columns.length; i++) {
+                        t.setField(i, full.getField(columns[i]));
+                    }
+                    return t;
+                }
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                // drop the tuple read ahead by hasNext()
+                super.close();
+                it.rewind();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +178,14 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Releases any operating system resources, such as open file channels,
+     * held by this DbFile. Called by the Catalog when the table is dropped.
+     * A closed DbFile transparently reopens its resources if it is used again.
+     *
+     * @throws IOException if the underlying file cannot be closed
+     */
+    default void close() throws IOException {
+    }
 }
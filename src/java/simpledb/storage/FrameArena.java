@@ -0,0 +1,127 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A FrameArena hands out fixed-size frames of off-heap memory to hold page
+ * bytes, so that the contents of a large buffer pool do not live on the Java
+ * heap, where the garbage collector would have to trace and copy them.
+ * <p>
+ * Frames are carved out of direct ByteBuffers of {@link #CHUNK_FRAMES}
+ * frames each, allocated as the arena fills up. A frame is returned with
+ * {@link #free}; the BufferPool does that as soon as it evicts the page
+ * that owns the frame, see {@link HeapPage}. Callers must not keep views of
+ * a frame, e.g. from {@link ByteBuffer#duplicate()}, after freeing it.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    /** Number of frames allocated at once. */
+    public static final int CHUNK_FRAMES = 64;
+
+    private final int frameSize;
+    private final int capacity;
+    private final ByteBuffer[] chunks;
+    private int nextFrame;
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    /** The index of every frame handed out, by the identity of its buffer. */
+    private final Map<ByteBuffer, Integer> inUse = new IdentityHashMap<>();
+    private long exhausted;
+
+    /**
+     * @param frameSize the size of a frame in bytes, i.e. the page size
+     * @param capacity the most frames the arena hands out at once; 0 keeps
+     *          everything on the heap
+     */
+    public FrameArena(int frameSize, int capacity) {
+        this.frameSize = frameSize;
+        this.capacity = capacity;
+        this.chunks = new ByteBuffer[(capacity + CHUNK_FRAMES - 1) / CHUNK_FRAMES];
+    }
+
+    public int frameSize() {
+        return frameSize;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of frames handed out and not freed yet.
+     */
+    public synchronized int inUse() {
+        return inUse.size();
+    }
+
+    /**
+     * Returns how often {@link #allocate()} found every frame in use, so
+     * that a page had to stay on the heap.
+     */
+    public synchronized long exhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Returns a frame of {@link #frameSize()} bytes, with position 0 and
+     * undefined contents, or null if all frames are in use.
+     */
+    public synchronized ByteBuffer allocate() {
+        Integer frame = freeFrames.poll();
+        if (frame == null) {
+            if (nextFrame >= capacity) {
+                if (capacity > 0) {
+                    exhausted++;
+                }
+                return null;
+            }
+            frame = nextFrame++;
+        }
+        ByteBuffer chunk = chunk(frame / CHUNK_FRAMES);
+        if (chunk == null) {
+            freeFrames.push(frame);
+            exhausted++;
+            return null;
+        }
+        ByteBuffer buffer = chunk.duplicate();
+        int offset = (frame % CHUNK_FRAMES) * frameSize;
+        buffer.limit(offset + frameSize);
+        buffer.position(offset);
+        buffer = buffer.slice();
+        inUse.put(buffer, frame);
+        return buffer;
+    }
+
+    /**
+     * Returns a frame to the arena.
+     *
+     * @param frame a buffer {@link #allocate()} returned and that was not
+     *          freed since
+     * @throws IllegalArgumentException if frame is not such a buffer
+     */
+    public synchronized void free(ByteBuffer frame) {
+        Integer index = inUse.remove(frame);
+        if (index == null) {
+            throw new IllegalArgumentException("not a frame in use of this arena");
+        }
+        freeFrames.push(index);
+    }
+
+    private ByteBuffer chunk(int index) {
+        if (chunks[index] == null) {
+            int frames = Math.min(CHUNK_FRAMES, capacity - index * CHUNK_FRAMES);
+            try {
+                chunks[index] = ByteBuffer.allocateDirect(frames * frameSize);
+            } catch (OutOfMemoryError e) {
+                // out of direct memory; the caller falls back to the heap
+                return null;
+            }
+        }
+        return chunks[index];
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.function.IntSupplier;
+
+/**
+ * FreeSpaceMap keeps one bit per page of a HeapFile telling whether the page
+ * may still have an empty slot, so that an insert can go straight to a page
+ * with room instead of pulling every page of the file through the
+ * BufferPool. It also caches the number of pages it covers, which saves
+ * asking the file system for the file length on every insert.
+ * <p>
+ * The map is only a hint. A set bit for a page that turns out to be full is
+ * cleared by the insert that finds it full, and every page read from disk
+ * refreshes its own bit. Pages the map has never seen, e.g. pages appended
+ * by HeapFileEncoder, count as possibly free.
+ * <p>
+ * The map is persisted in a sidecar file next to the table (the table's file
+ * name plus ".fsm") when the HeapFile is closed, and read back the first
+ * time it is needed. A sidecar written for a different page size or for a
+ * file that has since shrunk is ignored.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private final File sidecar;
+    private final BitSet maybeFree = new BitSet();
+    private int numPages = -1;
+
+    /**
+     * @param sidecar the file the map is persisted in
+     */
+    FreeSpaceMap(File sidecar) {
+        this.sidecar = sidecar;
+    }
+
+    /**
+     * Loads the persisted map the first time the map is used.
+     *
+     * @param filePages supplies the number of pages currently in the HeapFile
+     */
+    private void ensureLoaded(IntSupplier filePages) {
+        if (numPages >= 0) {
+            return;
+        }
+        int pagesInFile = filePages.getAsInt();
+        numPages = 0;
+        if (sidecar.exists()) {
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(sidecar)))) {
+                int pageSize = dis.readInt();
+                int pages = dis.readInt();
+                long[] words = new long[dis.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = dis.readLong();
+                }
+                if (pageSize == BufferPool.getPageSize() && pages <= pagesInFile) {
+                    maybeFree.or(BitSet.valueOf(words));
+                    numPages = pages;
+                }
+            } catch (IOException e) {
+                // a damaged map is rebuilt from scratch
+                maybeFree.clear();
+            }
+        }
+        cover(pagesInFile);
+    }
+
+    /**
+     * Returns the number of pages the map covers, i.e. the cached page count
+     * of the HeapFile.
+     *
+     * @param filePages supplies the number of pages in the HeapFile; only
+     *                  called when the map has not been loaded yet
+     */
+    synchronized int numPages(IntSupplier filePages) {
+        ensureLoaded(filePages);
+        return numPages;
+    }
+
+    /**
+     * Extends the map to cover pages pages; the new pages count as possibly
+     * free.
+     */
+    synchronized void cover(int pages) {
+        ensureLoaded(() -> pages);
+        if (pages > numPages) {
+            maybeFree.set(numPages, pages);
+            numPages = pages;
+        }
+    }
+
+    /**
+     * Returns the first page at or after pgNo that may have an empty slot,
+     * or -1 if there is none.
+     */
+    synchronized int nextFree(int pgNo) {
+        int next = maybeFree.nextSetBit(pgNo);
+        return next < numPages ? next : -1;
+    }
+
+    /**
+     * Records whether page pgNo has an empty slot.
+     */
+    synchronized void setFree(int pgNo, boolean free) {
+        if (pgNo >= numPages) {
+            return;
+        }
+        maybeFree.set(pgNo, free);
+    }
+
+    /**
+     * Writes the map to its sidecar file.
+     */
+    synchronized void save() throws IOException {
+        if (numPages < 0) {
+            return;
+        }
+        long[] words = maybeFree.toLongArray();
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+            dos.writeInt(BufferPool.getPageSize());
+            dos.writeInt(numPages);
+            dos.writeInt(words.length);
+            for (long word : words) {
+                dos.writeLong(word);
+            }
+        }
+    }
+}
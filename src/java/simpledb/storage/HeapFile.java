@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.index.BTreeLeafPage;
 import simpledb.index.BTreePageId;
 import simpledb.index.BTreeRootPtrPage;
@@ -11,6 +12,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Semaphore;
 
@@ -26,8 +28,15 @@ import java.util.concurrent.Semaphore;
  */
 public class HeapFile implements DbFile {
 
+    /** Most pages {@link #writePages} writes with one call. */
+    public static final int MAX_WRITE_RUN = 64;
+
     final File f;
     final TupleDesc td;
+    private final PageChannel channel;
+    private final PageMapping mapping;
+    private final FreeSpaceMap freeSpace;
+    private final ZoneMap zoneMap;
     //private int totalPages;
 
 
@@ -38,8 +47,26 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param memoryMapped if true, pages are read from a read-only memory
+     *          mapping of f instead of with a read call per page. Meant for
+     *          large, read-mostly tables; writes still go through the
+     *          file channel and are visible through the mapping.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.f = f;
         this.td = td;
+        this.channel = new PageChannel(f);
+        this.mapping = memoryMapped ? new PageMapping(channel) : null;
+        this.freeSpace = new FreeSpaceMap(new File(f.getPath() + ".fsm"));
+        this.zoneMap = new ZoneMap(f, new File(f.getPath() + ".zm"), td);
         //  totalPages = 0;
     }
 
@@ -52,6 +79,13 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * Returns true if pages of this HeapFile are read through a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return mapping != null;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -81,37 +115,29 @@ public class HeapFile implements DbFile {
         // some code goes here
 
         final int pageSize = BufferPool.getPageSize();
-        final int offset = pid.getPageNumber() * pageSize;
+        final long offset = (long) pid.getPageNumber() * pageSize;
         final byte[] pageBuffer = new byte[pageSize];
 
         HeapPage heapPage = null;
-        FileInputStream fis = null;
         try {
-            fis = new FileInputStream(f);
-            if (offset > 0) {
-                fis.skip(offset);
-            }
-
-            if (fis.available() > 0) {
-                if (fis.read(pageBuffer, 0, pageSize) <= 0) {
-                    Debug.log("Failed to read page:" + pid.getPageNumber());
-                    //return null;
-                } else {
-                    heapPage = new HeapPage((HeapPageId) pid, pageBuffer);
+            if (mapping != null) {
+                // build the page straight from the mapping, no copy and no syscall
+                ByteBuffer mapped = mapping.page(pid.getPageNumber());
+                if (mapped != null) {
+                    heapPage = new HeapPage((HeapPageId) pid, mapped);
                 }
             }
+            // a negative count means the page lies past the end of the file
+            if (heapPage == null && channel.read(offset, pageBuffer) > 0) {
+                heapPage = new HeapPage((HeapPageId) pid, pageBuffer);
+            }
+            if (heapPage != null) {
+                freeSpace.setFree(pid.getPageNumber(), heapPage.getNumEmptySlots() > 0);
+                zoneMap.include(pid.getPageNumber(), heapPage);
+            }
         } catch (IOException e) {
             Debug.log("HeapFile##readPage: " +
                     "Exception happened when database trying to get page from disk");
-        } finally {
-            if (fis != null) {
-                try {
-                    fis.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    System.out.println("Failed to close this file stream");
-                }
-            }
         }
         return heapPage;
     }
@@ -120,18 +146,57 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         PageId pageId = page.getId();
         int pageNo = pageId.getPageNumber();
-        int offset = pageNo * BufferPool.getPageSize();
+        long offset = (long) pageNo * BufferPool.getPageSize();
         byte[] pageData = page.getPageData();
 
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek(offset);
-        raf.write(pageData);
-        raf.close();
+        channel.write(offset, pageData);
+        zoneMap.set(pageNo, (HeapPage) page);
 
         page.markDirty(false, null);
 
     }
 
+    /**
+     * Writes the pages in page number order and hands each run of adjacent
+     * pages, up to {@link #MAX_WRITE_RUN} of them, to the channel as one
+     * gathering write.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int start = 0;
+        while (start < sorted.size()) {
+            int firstPage = sorted.get(start).getId().getPageNumber();
+            int end = start + 1;
+            while (end < sorted.size() && end - start < MAX_WRITE_RUN
+                    && sorted.get(end).getId().getPageNumber() == firstPage + (end - start)) {
+                end++;
+            }
+            byte[][] run = new byte[end - start][];
+            for (int i = start; i < end; i++) {
+                run[i - start] = sorted.get(i).getPageData();
+            }
+            channel.write((long) firstPage * BufferPool.getPageSize(), run);
+            for (int i = start; i < end; i++) {
+                Page page = sorted.get(i);
+                zoneMap.set(page.getId().getPageNumber(), (HeapPage) page);
+                page.markDirty(false, null);
+            }
+            start = end;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        freeSpace.save();
+        zoneMap.save();
+        if (mapping != null) {
+            mapping.clear();
+        }
+        channel.close();
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -151,32 +216,53 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> pagesModified = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
-            PageId pageId = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            if (page.getNumEmptySlots() <= 0) {
-                Database.getBufferPool().unsafeReleasePage(tid, pageId);
-            } else {
-                page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-                page.markDirty(true, tid);
-                page.insertTuple(t);
-                pagesModified.add(page);
-                return pagesModified;
+        // loads the persisted map on first use
+        freeSpace.numPages(this::numPages);
+        while (true) {
+            // only visit pages the free space map says may have room
+            for (int i = freeSpace.nextFree(0); i >= 0; i = freeSpace.nextFree(i + 1)) {
+                PageId pageId = new HeapPageId(getId(), i);
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+                if (page.getNumEmptySlots() <= 0) {
+                    freeSpace.setFree(i, false);
+                    Database.getBufferPool().unsafeReleasePage(tid, pageId);
+                } else {
+                    page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+                    page.markDirty(true, tid);
+                    page.insertTuple(t);
+                    zoneMap.include(i, t);
+                    if (page.getNumEmptySlots() == 0) {
+                        freeSpace.setFree(i, false);
+                    }
+                    pagesModified.add(page);
+                    return pagesModified;
 
+                }
             }
-        }
 
-        //no more space in the existed pages or the are no page
-        //create new page class and add it to the physical file
-        HeapPageId pageId = new HeapPageId(getId(), numPages());
-        byte[] emptyPage = new byte[BufferPool.getPageSize()];
-        HeapPage newPage = new HeapPage(pageId, emptyPage);
-        newPage.markDirty(true, tid);
-        newPage.insertTuple(t);
-
-        writePage(newPage);
-        pagesModified.add(newPage);
-        return pagesModified;
+            synchronized (this) {
+                int pages = numPages();
+                if (pages > freeSpace.numPages(this::numPages)) {
+                    // pages were appended without going through this HeapFile
+                    freeSpace.cover(pages);
+                    continue;
+                }
+
+                //no more space in the existed pages or the are no page
+                //create new page class and add it to the physical file
+                HeapPageId pageId = new HeapPageId(getId(), pages);
+                byte[] emptyPage = new byte[BufferPool.getPageSize()];
+                HeapPage newPage = new HeapPage(pageId, emptyPage);
+                newPage.markDirty(true, tid);
+                newPage.insertTuple(t);
+
+                writePage(newPage);
+                freeSpace.cover(pages + 1);
+                freeSpace.setFree(pages, newPage.getNumEmptySlots() > 0);
+                pagesModified.add(newPage);
+                return pagesModified;
+            }
+        }
     }
 
     // see DbFile.java for javadocs
@@ -187,6 +273,7 @@ public class HeapFile implements DbFile {
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         page.deleteTuple(t);
         page.markDirty(true, tid);
+        freeSpace.setFree(pageId.getPageNumber(), true);
         ans.add(page);
         return ans;
     }
@@ -195,7 +282,26 @@ public class HeapFile implements DbFile {
     public DbFileIterator iterator(TransactionId tid) {
         //return new HeapFileIterator(this, tid);
         //return new HeapFileIterator1(numPages(), tid, Permissions.READ_ONLY);
-        return new HeapFileIterator(tid, this);
+        return new HeapFileIterator(tid, this, null, null, 0, -1);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, this, columns, predicates, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples on a range of pages of this file,
+     * e.g. one morsel of a parallel scan. Otherwise it behaves like
+     * {@link #iterator(TransactionId, int[], List)}.
+     *
+     * @param firstPage the first page to read
+     * @param endPage the page after the last one to read; pages past the end
+     *                of the file are ignored
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates,
+                                   int firstPage, int endPage) {
+        return new HeapFileIterator(tid, this, columns, predicates, firstPage, endPage);
     }
 
 //    private class HeapFileIterator extends AbstractDbFileIterator {
@@ -349,23 +455,51 @@ public class HeapFile implements DbFile {
     /**
      * HeapFile迭代器，用于遍历HeapFile的所有tuple；
      * 需要使用上BufferPool.getPage(),注意一次不能读出HeapFile的所有tuples，不然会出现OOM
+     * <p>
+     * When columns is not null, pages only decode those fields and the
+     * iterator returns projected tuples (see {@link HeapPage#iterator(int[])}).
+     * Predicates are tested by the pages before any Tuple is built, and pages
+     * whose {@link ZoneMap} summary rules out a match are not read at all.
+     * The iterator covers the pages from firstPage up to, not including,
+     * endPage, or up to the end of the file when endPage is negative.
+     * Scans of files too large to share the BufferPool with everything else
+     * read their pages through a {@link BufferRing}.
      */
     private static class HeapFileIterator implements DbFileIterator {
 
         private final TransactionId tid;
         private final HeapFile file;
+        private final ReadAheadPrefetcher readAhead;
+        private final int[] columns;
+        private final List<Predicate> predicates;
+        private final int firstPage;
+        private final int endPage;
         private Iterator<Tuple> it;
         private int pageNo;
+        private BufferRing ring;
 
-        public HeapFileIterator(TransactionId tid, HeapFile file) {
+        public HeapFileIterator(TransactionId tid, HeapFile file, int[] columns, List<Predicate> predicates,
+                                int firstPage, int endPage) {
             this.tid = tid;
             this.file = file;
+            this.columns = columns;
+            this.predicates = predicates;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.readAhead = new ReadAheadPrefetcher(file.getId(), this::mayMatch);
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            pageNo = 0;
-            it = getTupleIterator(pageNo);
+            pageNo = firstPage;
+            ring = Database.getBufferPool().scanRing(tid, endPage() - firstPage);
+            readAhead.reset(firstPage);
+            readAhead.setRing(ring);
+            if (endPage() <= firstPage) {
+                it = Collections.emptyIterator();
+            } else {
+                it = getTupleIterator(pageNo);
+            }
         }
 
         /**
@@ -376,36 +510,58 @@ public class HeapFile implements DbFile {
          * @throws DbException
          */
         private Iterator<Tuple> getTupleIterator(int pageNo) throws TransactionAbortedException, DbException{
-            if(pageNo >= 0 && pageNo < file.numPages()) {
+            int numPages = endPage();
+            if(pageNo >= 0 && pageNo < numPages) {
+                if (!mayMatch(pageNo)) {
+                    // no tuple on the page can match, don't even read it
+                    readAhead.pageSkipped(pageNo);
+                    return Collections.emptyIterator();
+                }
+                readAhead.pageAccessed(pageNo, numPages);
                 HeapPageId pid = new HeapPageId(file.getId(), pageNo);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, ring);
                 if(page == null) throw new DbException("get iterator fail! pageNo #" + pageNo + "# is invalid!");
-                return page.iterator();
+                if (columns == null && (predicates == null || predicates.isEmpty())) {
+                    return page.iterator();
+                }
+                return page.iterator(columns, predicates);
             }
             throw new DbException("get iterator fail!!! pageNo #" + pageNo + "# is invalid!");
         }
 
+        /**
+         * Returns the page after the last one this iterator reads.
+         */
+        private int endPage() {
+            int numPages = file.numPages();
+            return endPage < 0 ? numPages : Math.min(endPage, numPages);
+        }
+
+        /**
+         * Returns false if the zone map shows that no tuple on page pgNo
+         * satisfies the predicates.
+         */
+        private boolean mayMatch(int pgNo) {
+            return predicates == null || predicates.isEmpty() || file.zoneMap.mayMatch(pgNo, predicates);
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
             //需要先判断文件有没有打开
             if(it == null) return false;
-            if(pageNo >= file.numPages()) return false;
-            if(!it.hasNext() && pageNo == file.numPages() - 1) return false;
+            // skip over pages that hold no tuples
+            while(!it.hasNext()) {
+                if(pageNo >= endPage() - 1) return false;
+                pageNo ++;
+                it = getTupleIterator(pageNo);
+            }
             return true;
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             if(it == null) throw new NoSuchElementException("file not open!");
-            if(!it.hasNext()) {
-                if(pageNo < file.numPages() - 1) {
-                    pageNo ++;
-                    it = getTupleIterator(pageNo);
-                    return it.next();
-                }else {
-                    return null;
-                }
-            }
+            if(!hasNext()) throw new NoSuchElementException("no more tuples!");
             return it.next();
         }
 
@@ -418,6 +574,10 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             it = null;
+            if (ring != null) {
+                ring.release();
+                ring = null;
+            }
         }
     }
 
@@ -4,14 +4,33 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 import java.io.*;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily: the page keeps the bytes it was read from and
+ * only turns a slot into a Tuple when {@link #iterator()} reaches it, so a
+ * scan that stops early or a caller that only needs one column through
+ * {@link #getField(int, int)} does not pay for the rest of the page.
+ * <p>
+ * While the BufferPool caches a page, it keeps the bytes and the before
+ * image in frames of the pool's {@link FrameArena}, i.e. off the Java heap,
+ * if the arena has frames to spare; a page read from a memory mapping reads
+ * its bytes from the mapping instead. Such a page does not keep the tuples
+ * it decodes either, only the ones inserted into it, so a cached page that
+ * is only read costs the heap little more than its header. When the pool
+ * evicts the page, the frames go back to the arena and the page continues
+ * on a heap copy, for whoever still holds it.
  *
  * @see HeapFile
  * @see BufferPool
@@ -22,14 +41,30 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     public final byte[] header;
+    /** Decoded tuples; null for empty slots and for used slots not decoded yet, or never kept. */
     final Tuple[] tuples;
     final int numSlots;
+    /**
+     * The page as read from disk. Never modified by the page; if shared, it
+     * is a view of the file and changes when the page is written to it.
+     * Moved between the heap and a frame, so only read under the monitor.
+     */
+    private ByteBuffer raw;
+    private final boolean shared;
+    /** The arena raw and any direct before image are frames of, or null. */
+    private FrameArena arena;
+    /** Byte offset of each field within a tuple. */
+    private final int[] fieldOffsets;
     private TransactionId transactionId;
     private boolean isDirty;
 
 
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    /**
+     * The page as it was before the running transaction modified it, or
+     * null if it was not modified since it was committed: the before image
+     * is then only copied when the next modification starts.
+     */
+    ByteBuffer oldData;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -48,27 +83,122 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                data.length == BufferPool.getPageSize() ? ByteBuffer.wrap(data) : copyPage(ByteBuffer.wrap(data), null),
+                false);
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page bytes, for example a
+     * slice of a memory-mapped HeapFile. The buffer must start at the first
+     * byte of the page. A full page is not copied: the page keeps reading
+     * tuples from it, so it must only change when the page is written back
+     * to the file it shows, as a mapping of the file does. The before image
+     * is copied out of it on the first modification.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+                data.limit() >= BufferPool.getPageSize() ? data.duplicate() : copyPage(data, null),
+                data.limit() >= BufferPool.getPageSize());
+    }
+
+    /**
+     * Builds a page over raw, a page-sized buffer that the page never
+     * modifies.
+     *
+     * @param shared true if raw changes when the page is written to disk
+     */
+    private HeapPage(HeapPageId id, TupleDesc td, ByteBuffer raw, boolean shared) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        // the page keeps data as its raw bytes and never modifies it
+        this.raw = raw;
+        this.shared = shared;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        copyRaw(0, header, 0, header.length);
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
+
+        // the raw bytes are never modified, so they are the before image
+        oldData = raw;
+    }
+
+    /**
+     * Copies the page that starts at the beginning of data into dst, or
+     * into a new heap buffer if dst is null, padding it with zeros to the
+     * page size.
+     */
+    private static ByteBuffer copyPage(ByteBuffer data, ByteBuffer dst) {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer frame = dst != null ? dst : ByteBuffer.allocate(pageSize);
+        ByteBuffer src = data.duplicate();
+        src.position(0);
+        src.limit(Math.min(src.limit(), pageSize));
+        frame.put(src);
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0);
+        }
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Moves the page bytes into a frame of arena, unless they are in one
+     * already, come from a memory mapping, or the arena has no frame to
+     * spare. Called by the BufferPool when it caches the page.
+     */
+    synchronized void attach(FrameArena arena) {
+        if (this.arena != null || shared || arena.frameSize() != BufferPool.getPageSize()) {
+            return;
+        }
+        ByteBuffer frame = arena.allocate();
+        if (frame == null) {
+            return;
         }
-        dis.close();
+        ByteBuffer heap = raw;
+        raw = copyPage(heap, frame);
+        if (oldData == heap) {
+            oldData = raw;
+        }
+        this.arena = arena;
+    }
 
-        setBeforeImage();
+    /**
+     * Moves the page bytes back onto the heap and returns the page's frames
+     * to the arena. Called by the BufferPool when it evicts the page; the
+     * page stays usable for anyone who still holds it.
+     */
+    synchronized void detach() {
+        if (arena == null) {
+            return;
+        }
+        ByteBuffer frame = raw;
+        raw = copyPage(frame, null);
+        if (oldData == frame) {
+            oldData = raw;
+        } else if (oldData != null && oldData.isDirect()) {
+            ByteBuffer before = oldData;
+            oldData = copyPage(before, null);
+            arena.free(before);
+        }
+        arena.free(frame);
+        arena = null;
+    }
+
+    /** Copies len bytes of the page, starting at offset, into dst. */
+    private void copyRaw(int offset, byte[] dst, int dstOffset, int len) {
+        ByteBuffer src = raw.duplicate();
+        src.position(offset);
+        src.get(dst, dstOffset, len);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -91,26 +221,36 @@ public class HeapPage implements Page {
     
     /** Return a view of this page before it was modified
         -- used by recovery */
-    public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+    public synchronized HeapPage getBeforeImage(){
+        if (oldData == null || shared && oldData == raw) {
+            return new HeapPage(pid, td, ByteBuffer.wrap(getPageData()), false);
+        }
+        if (arena != null && oldData.isDirect()) {
+            // frames go back to the arena on eviction; the image needs its own copy
+            return new HeapPage(pid, td, copyPage(oldData, null), false);
         }
-        return null;
+        // the before image is never modified, so the pages can share it
+        return new HeapPage(pid, td, oldData, false);
     }
     
-    public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-        oldData = getPageData().clone();
+    public synchronized void setBeforeImage() {
+        if (arena != null && oldData != null && oldData != raw && oldData.isDirect()) {
+            arena.free(oldData);
+        }
+        oldData = null;
+    }
+
+    /**
+     * Copies the current contents into the before image if this is the
+     * first modification since the page was committed or, for a shared raw
+     * buffer that the write to disk will change, since it was read. Every
+     * method that modifies the page calls this first.
+     */
+    private void beforeWrite() {
+        if (oldData == null || shared && oldData == raw) {
+            byte[] data = getPageData();
+            ByteBuffer frame = arena != null ? arena.allocate() : null;
+            oldData = frame != null ? copyPage(ByteBuffer.wrap(data), frame) : ByteBuffer.wrap(data);
         }
     }
 
@@ -122,37 +262,69 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot slotId, decoding it from the raw page bytes
+     * the first time it is asked for, or null if the slot is empty. Tuples
+     * decoded from an off-heap frame are decoded again every time.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private synchronized Tuple getTuple(int slotId) throws NoSuchElementException {
+        // if associated bit is not set, the slot is empty; return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        if (tuples[slotId] != null) {
+            return tuples[slotId];
+        }
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, parseField(slotId, j));
+        }
+        if (!raw.isDirect()) {
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    private Field parseField(int slotId, int column) throws NoSuchElementException {
+        int offset = header.length + slotId * td.getSize() + fieldOffsets[column];
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            return td.getFieldType(column).parse(raw, offset);
+        } catch (java.text.ParseException | IndexOutOfBoundsException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * Returns a single field of the tuple in slot slotId without decoding
+     * the rest of the tuple.
+     *
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public synchronized Field getField(int slotId, int column) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
+        if (tuples[slotId] != null) {
+            return tuples[slotId].getField(column);
+        }
+        return parseField(slotId, column);
+    }
+
+    /**
+     * Returns the value of an INT_TYPE column of the tuple in slot slotId,
+     * read straight from the page bytes when the tuple was never decoded.
+     * The slot must be in use.
+     */
+    synchronized int getInt(int slotId, int column) {
+        if (tuples[slotId] != null) {
+            return ((IntField) tuples[slotId].getField(column)).getValue();
+        }
+        int offset = header.length + slotId * td.getSize() + fieldOffsets[column];
+        return raw.getInt(offset);
     }
 
     /**
@@ -166,7 +338,7 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -197,6 +369,18 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: it still has its raw bytes
+            if (tuples[i] == null) {
+                try {
+                    byte[] slot = new byte[td.getSize()];
+                    copyRaw(header.length + i * td.getSize(), slot, 0, slot.length);
+                    dos.write(slot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -248,13 +432,14 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         RecordId recordId = t.getRecordId();
         PageId pageId = recordId.getPageId();
         int tupleNo = recordId.getTupleNumber();
         if (!pageId.equals(pid) || !isSlotUsed(tupleNo)) {
             throw new DbException("This tuple is not on this page or tuple slot is already empty");
         }
+        beforeWrite();
         //make the slot from filled to empty -> markSlotUsed(int tupleNo, boolean value)
         //make the corresponding tuple[tupleNo] -> null
         markSlotUsed(tupleNo, false);
@@ -269,11 +454,12 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         TupleDesc tupleDesc = t.getTupleDesc();
         if (!tupleDesc.equals(td) || getNumEmptySlots() == 0) {
             throw new DbException("the page is full or tupleDesc mismatch");
         }
+        beforeWrite();
 //        int tupleNo = t.getRecordId().getTupleNumber();
 //        RecordId newId = new RecordId(this.pid, getNumTuples() - getNumEmptySlots());
 //        t.setRecordId(newId);
@@ -390,15 +576,104 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        // some code goes here
-        List<Tuple> tupleList = new ArrayList<>();
-        for (Tuple tuple : tuples) {
-            if (tuple != null) {
-                tupleList.add(tuple);
+        return slotIterator(slotId -> true, this::getTuple);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that only holds the
+     * given columns, in the order they are listed. Only the bytes of those
+     * columns are decoded, and the returned tuples are not kept by the page.
+     * Their TupleDesc is {@code td.project(columns)} and their RecordId is
+     * the one of the full tuple.
+     *
+     * @param columns indexes of the fields to decode
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        return iterator(columns, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy every
+     * predicate. The predicates are checked against the page bytes before a
+     * Tuple is built, so rejected slots cost no allocation; int comparisons
+     * read the value straight from its offset (see {@link #getInt}).
+     *
+     * @param columns indexes of the fields to decode, see {@link #iterator(int[])},
+     *          or null for full tuples
+     * @param predicates conditions on the columns of the table (not of the
+     *          projection) that all have to hold, or null
+     */
+    public Iterator<Tuple> iterator(int[] columns, List<Predicate> predicates) {
+        IntPredicate accept = predicates == null || predicates.isEmpty()
+                ? slotId -> true
+                : slotId -> matches(slotId, predicates);
+        if (columns == null) {
+            return slotIterator(accept, this::getTuple);
+        }
+        final TupleDesc projected = td.project(columns);
+        return slotIterator(accept, slotId -> {
+            Tuple t = new Tuple(projected);
+            t.setRecordId(new RecordId(pid, slotId));
+            for (int j = 0; j < columns.length; j++) {
+                t.setField(j, getField(slotId, columns[j]));
+            }
+            return t;
+        });
+    }
+
+    /**
+     * Returns true if the tuple in slot slotId satisfies every predicate.
+     */
+    private synchronized boolean matches(int slotId, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            int column = p.getField();
+            boolean match;
+            if (td.getFieldType(column) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                match = IntField.compare(getInt(slotId, column), p.getOp(),
+                        ((IntField) p.getOperand()).getValue());
+            } else {
+                match = getField(slotId, column).compare(p.getOp(), p.getOperand());
+            }
+            if (!match) {
+                return false;
             }
         }
+        return true;
+    }
 
-        return tupleList.iterator();
+    /**
+     * Walks the slots in use when the iterator is created, turning each one
+     * accepted by accept into a Tuple with decode; tuples inserted into the
+     * page while it is being iterated are not returned.
+     */
+    private Iterator<Tuple> slotIterator(final IntPredicate accept, final IntFunction<Tuple> decode) {
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+            /** The last slot that passed accept, so hasNext does not test it twice. */
+            private int accepted = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (slot < numSlots) {
+                    if ((used[slot / 8] & (1 << (slot % 8))) != 0 && isSlotUsed(slot)
+                            && (slot == accepted || accept.test(slot))) {
+                        accepted = slot;
+                        return true;
+                    }
+                    slot++;
+                }
+                return false;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return decode.apply(slot++);
+            }
+        };
     }
 
 
@@ -1,58 +1,98 @@
 package simpledb.storage;
 
-import java.nio.file.DirectoryNotEmptyException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
+ * Evicts the least recently used page. Every hit moves the page to the head
+ * of a doubly linked list, so all methods take the replacer's monitor; see
+ * {@link ClockReplacer} for a replacer whose hits do not serialize.
+ *
  * @author zwen
  * @Description
  * @create 2021-12-01 8:27 下午
+ * @Threadsafe
  */
-public class LRUReplacer {
+public class LRUReplacer implements Replacer {
 
     private static class dNode {
-        int value;
+        PageId pageId;
         dNode next;
         dNode prev;
-        dNode(int value) {
-            this.value = value;
+        dNode(PageId pageId) {
+            this.pageId = pageId;
         }
     }
 
-    private int capacity;
-    private Map<Integer, dNode> map = new HashMap<>();
-    private dNode sentinel;
+    private final Map<PageId, dNode> map = new HashMap<>();
+    private final dNode sentinel;
 
-    public LRUReplacer(int numPages) {
-        sentinel = new dNode(-1);
+    public LRUReplacer() {
+        sentinel = new dNode(null);
         sentinel.next = sentinel;
         sentinel.prev = sentinel;
-        capacity = numPages;
-    }
-
-//    public int Victim() {
-//
-//    }
-//
-//    void LRUReplacer::addToHead(const std::shared_ptr<Node> &node) {
-//        node->prev = sentinel;
-//        node->next = sentinel->next;
-//        sentinel->next->prev = node;
-//        sentinel->next = node;
-//    }
-//
-//    void LRUReplacer::removeNode(const std::shared_ptr<Node> &node) {
-//        node->prev->next = node->next;
-//        node->next->prev = node->prev;
-//    }
-//
-//    void LRUReplacer::moveToHead(const std::shared_ptr<Node> &node) {
-//        removeNode(node);
-//        addToHead(node);
-//    }
-//
+    }
+
+    @Override
+    public synchronized void add(PageId pid) {
+        dNode node = map.get(pid);
+        if (node == null) {
+            node = new dNode(pid);
+            map.put(pid, node);
+            addToHead(node);
+        } else {
+            moveToHead(node);
+        }
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        dNode node = map.get(pid);
+        if (node != null) {
+            moveToHead(node);
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        dNode node = map.remove(pid);
+        if (node != null) {
+            removeNode(node);
+        }
+    }
 
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        for (dNode tail = sentinel.prev; tail != sentinel; tail = tail.prev) {
+            if (evictable.test(tail.pageId)) {
+                removeNode(tail);
+                map.remove(tail.pageId);
+                return tail.pageId;
+            }
+        }
+        return null;
+    }
 
+    @Override
+    public synchronized int size() {
+        return map.size();
+    }
 
+    private void addToHead(dNode node) {
+        node.prev = sentinel;
+        node.next = sentinel.next;
+        sentinel.next.prev = node;
+        sentinel.next = node;
+    }
+
+    private void removeNode(dNode node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    private void moveToHead(dNode node) {
+        removeNode(node);
+        addToHead(node);
+    }
 }
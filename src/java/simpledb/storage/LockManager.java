@@ -1,18 +1,54 @@
 package simpledb.storage;
 
-import simpledb.common.Debug;
+import simpledb.common.DeadlockException;
 import simpledb.transaction.TransactionId;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * LockManager grants locks on tables and pages to transactions, in the
+ * modes of {@link LockType}. Each locked resource has a {@link LockQueue}:
+ * the locks granted on it and a FIFO queue of requests waiting for them. A
+ * request that cannot be granted waits until a release lets it through,
+ * instead of polling.
+ * <p>
+ * Locking is hierarchical: before a page is locked SHARED or EXCLUSIVE, its
+ * table is locked INTENTION_SHARED or INTENTION_EXCLUSIVE, and a table lock
+ * that covers the page request makes the page lock unnecessary. Once a
+ * transaction holds {@link #DEFAULT_ESCALATION_THRESHOLD} page locks on one
+ * table, the manager tries to replace them with a single SHARED or
+ * EXCLUSIVE lock on the table, so that a full scan does not fill the lock
+ * table with thousands of page locks. Escalation never waits: if another
+ * transaction uses the table, the page locks stay.
+ * <p>
+ * The lock table is split into {@link Stripe}s by the hash of the resource.
+ * Each stripe's monitor guards the queues of its resources, and waiting
+ * requests wait on it, so requests for resources in different stripes never
+ * contend.
+ * <p>
+ * Requests are granted in arrival order: a shared request queues behind a
+ * waiting exclusive request even if it is compatible with the current
+ * holders, so a stream of readers cannot starve a writer. An upgrade from a
+ * shared to an exclusive lock goes to the front of the queue, since the
+ * requests ahead of it would otherwise wait for the upgrading transaction's
+ * own shared lock.
+ * <p>
+ * Deadlocks are detected in the waits-for graph when a request starts to
+ * wait, and broken by aborting the youngest transaction on the cycle, which
+ * has done the least work. Several threads may wait for locks on behalf of
+ * one transaction, e.g. the workers of a ParallelSeqScan: the transaction
+ * waits for the blockers of all of them, and aborting it wakes all of them.
+ *
  * @author zwen
- * @Description
  * @create 2021-12-29 2:20 下午
  */
 public class LockManager {
 
+    /** Default number of stripes. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** Default number of page locks on one table after which a transaction's locks are escalated. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 256;
 
     public static class Lock {
         private TransactionId transactionId;
@@ -24,110 +60,639 @@ public class LockManager {
         }
     }
 
-    private final Map<PageId, List<Lock>> lockMap;
+    /**
+     * The locks granted on one page and the requests waiting for it.
+     */
+    private static class LockQueue {
+        final List<Lock> granted = new ArrayList<>();
+        final Deque<Lock> waiting = new ArrayDeque<>();
+
+        Lock grantedTo(TransactionId tid) {
+            for (Lock lock : granted) {
+                if (lock.transactionId == tid) {
+                    return lock;
+                }
+            }
+            return null;
+        }
+
+        /** Returns true if request could be granted ignoring the queue. */
+        boolean compatible(Lock request) {
+            for (Lock lock : granted) {
+                if (lock.transactionId != request.transactionId && !lock.lockType.compatibleWith(request.lockType)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return granted.isEmpty() && waiting.isEmpty();
+        }
+    }
+
+    /**
+     * The resource standing for a whole table in the lock table, next to
+     * the PageIds of its pages.
+     */
+    private static final class TableResource {
+        final int tableId;
 
-    private final Map<TransactionId, PageId> transactionIdPageIdMap;
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId) * 0x9E3779B9;
+        }
+    }
+
+    /**
+     * A part of the lock table. Its monitor guards its queues and the
+     * entries of {@link #waiting} for the requests waiting on its
+     * resources.
+     */
+    private static final class Stripe {
+        final Map<Object, LockQueue> queues = new HashMap<>();
+
+        void released(Object resource, LockQueue queue) {
+            if (queue.isEmpty()) {
+                queues.remove(resource);
+            } else if (!queue.waiting.isEmpty()) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The locks one transaction holds, so that releasing them does not scan
+     * the whole lock table and escalation knows how many pages of a table
+     * are locked. Taken inside a stripe's monitor, never the other way
+     * around.
+     */
+    private static final class HeldLocks {
+        private final Map<Integer, Set<PageId>> pages = new HashMap<>();
+        private final Map<Integer, LockType> tables = new HashMap<>();
+        private final Set<Integer> writtenTables = new HashSet<>();
+
+        synchronized void addPage(PageId pid) {
+            pages.computeIfAbsent(pid.getTableId(), t -> new HashSet<>()).add(pid);
+        }
+
+        synchronized void removePage(PageId pid) {
+            Set<PageId> ofTable = pages.get(pid.getTableId());
+            if (ofTable != null && ofTable.remove(pid) && ofTable.isEmpty()) {
+                pages.remove(pid.getTableId());
+            }
+        }
+
+        /** Removes and returns the page locks on the table. */
+        synchronized Set<PageId> removePages(int tableId) {
+            Set<PageId> ofTable = pages.remove(tableId);
+            return ofTable != null ? ofTable : Collections.emptySet();
+        }
+
+        synchronized int pageCount(int tableId) {
+            Set<PageId> ofTable = pages.get(tableId);
+            return ofTable == null ? 0 : ofTable.size();
+        }
+
+        /** Records the mode tid was granted on a table. */
+        synchronized void setTableMode(int tableId, LockType mode) {
+            tables.put(tableId, mode);
+        }
+
+        synchronized LockType tableMode(int tableId) {
+            return tables.get(tableId);
+        }
+
+        /** Records that a page of the table is locked exclusively. */
+        synchronized void wrote(int tableId) {
+            writtenTables.add(tableId);
+        }
+
+        synchronized boolean hasWritten(int tableId) {
+            return writtenTables.contains(tableId);
+        }
+    }
+
+    private final Stripe[] stripes;
+
+    private final int escalationThreshold;
+
+    /**
+     * The locks each transaction holds. Entries are only removed when the
+     * transaction releases all its locks.
+     */
+    private final Map<TransactionId, HeldLocks> heldLocks = new ConcurrentHashMap<>();
+
+    /**
+     * The requests each waiting transaction waits in, one per waiting
+     * thread, with the resource each one waits for. A transaction's entry
+     * is removed when its last request stops waiting.
+     */
+    private final Map<TransactionId, Map<Lock, Object>> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * Waiting transactions chosen to break a deadlock. The mark stays until
+     * the last of the transaction's requests stops waiting, so that every
+     * thread waiting for it sees it.
+     */
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Serializes deadlock searches, so that of two requests closing the
+     * same cycle at once the second sees the first. Only requests that have
+     * to wait take it, and never while holding a stripe's monitor.
+     */
+    private final Object detector = new Object();
 
     public LockManager() {
-        lockMap = new ConcurrentHashMap<>();
-        transactionIdPageIdMap = new ConcurrentHashMap<>();
+        this(DEFAULT_STRIPES, DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+    public LockManager(int numStripes) {
+        this(numStripes, DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+    /**
+     * @param numStripes the number of stripes to split the lock table into
+     * @param escalationThreshold the number of page locks on one table at
+     *   which a transaction's locks are escalated, or Integer.MAX_VALUE to
+     *   never escalate
+     */
+    public LockManager(int numStripes, int escalationThreshold) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("a lock table needs at least one stripe");
+        }
+        if (escalationThreshold < 1) {
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        }
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.escalationThreshold = escalationThreshold;
     }
 
+    private Stripe stripeOf(Object resource) {
+        int h = resource.hashCode();
+        return stripes[Math.floorMod(h ^ (h >>> 16), stripes.length)];
+    }
 
-    //todo::this method may be synchronized
-    public synchronized boolean acquireLock(TransactionId tid, PageId pageId, LockType lockType) {
+    /**
+     * Locks a page SHARED or EXCLUSIVE, waiting as long as it takes for
+     * conflicting locks to be released.
+     *
+     * @return true if tid holds the lock afterwards, false if the waiting
+     *   thread was interrupted
+     * @throws DeadlockException if waiting would deadlock and tid was chosen
+     *   to abort
+     */
+    public boolean acquireLock(TransactionId tid, PageId pageId, LockType lockType) throws DeadlockException {
+        return acquireLock(tid, pageId, lockType, Long.MAX_VALUE);
+    }
 
-        if (lockMap.get(pageId) == null) {
-            //no lock in this page, grant it
-            Lock lock = new Lock(tid, lockType);
-            List<Lock> locks = new ArrayList<>();
-            locks.add(lock);
-            lockMap.put(pageId, locks);
-            transactionIdPageIdMap.put(tid, pageId);
+    /**
+     * Locks a page SHARED or EXCLUSIVE, after locking its table in the
+     * matching intention mode, waiting up to timeoutMillis ms for each of
+     * the two. A waiting thread that is interrupted gives up and keeps its
+     * interrupt status. See {@link #acquire} for deadlock handling.
+     *
+     * @param timeoutMillis the longest wait, or Long.MAX_VALUE to wait until
+     *   the lock is granted
+     * @return true if tid holds the lock afterwards, false on timeout
+     * @throws DeadlockException if tid was chosen to break a deadlock
+     */
+    public boolean acquireLock(TransactionId tid, PageId pageId, LockType lockType, long timeoutMillis)
+            throws DeadlockException {
+        if (lockType != LockType.SHARED_LOCK && lockType != LockType.EXCLUSIVE_LOCK) {
+            throw new IllegalArgumentException("pages are only locked SHARED or EXCLUSIVE");
+        }
+        // only tid itself changes its table modes, so this needs no stripe
+        HeldLocks locks = heldLocks.get(tid);
+        LockType tableMode = locks == null ? null : locks.tableMode(pageId.getTableId());
+        if (tableMode != null && tableMode.covers(lockType)) {
             return true;
         }
-        List<Lock> locks = lockMap.get(pageId);
-        /*
-        one transaction repeatedly request the lock on the same page, may lead to lock upgrade or fail
-         */
-        for (Lock lock : locks) {
-            if (lock.transactionId == tid) {
-                //same lock, grant
-                if (lock.lockType == lockType) {
-                    return true;
+        LockType intention = lockType == LockType.SHARED_LOCK
+                ? LockType.INTENTION_SHARED_LOCK : LockType.INTENTION_EXCLUSIVE_LOCK;
+        if (tableMode == null || !tableMode.covers(intention)) {
+            if (!acquire(tid, new TableResource(pageId.getTableId()), intention, timeoutMillis)) {
+                return false;
+            }
+        }
+        if (!acquire(tid, pageId, lockType, timeoutMillis)) {
+            return false;
+        }
+        escalateIfNeeded(tid, pageId.getTableId());
+        return true;
+    }
+
+    /**
+     * Locks a whole table in any mode, waiting as long as it takes. A
+     * SHARED or EXCLUSIVE table lock makes page locks of that kind
+     * unnecessary, e.g. for a scan that is known to read every page.
+     *
+     * @return true if tid holds the lock afterwards, false if the waiting
+     *   thread was interrupted
+     * @throws DeadlockException if tid was chosen to break a deadlock
+     */
+    public boolean acquireTableLock(TransactionId tid, int tableId, LockType lockType) throws DeadlockException {
+        return acquireTableLock(tid, tableId, lockType, Long.MAX_VALUE);
+    }
+
+    /**
+     * Locks a whole table like {@link #acquireTableLock(TransactionId, int, LockType)},
+     * waiting up to timeoutMillis ms.
+     *
+     * @return true if tid holds the lock afterwards, false on timeout
+     */
+    public boolean acquireTableLock(TransactionId tid, int tableId, LockType lockType, long timeoutMillis)
+            throws DeadlockException {
+        return acquire(tid, new TableResource(tableId), lockType, timeoutMillis);
+    }
+
+    /**
+     * Grants a lock on a resource, waiting up to timeoutMillis ms. A request
+     * by a transaction that already holds a lock on the resource asks for
+     * the combination of both modes.
+     * <p>
+     * Before a request starts waiting, the waits-for graph is searched for a
+     * cycle through it; see {@link #chooseVictim}. The youngest transaction
+     * on the cycle is aborted: if that is tid, this method throws right
+     * away, otherwise the victim throws once it wakes up.
+     */
+    private boolean acquire(TransactionId tid, Object resource, LockType lockType, long timeoutMillis)
+            throws DeadlockException {
+        Stripe stripe = stripeOf(resource);
+        LockQueue queue;
+        Lock request;
+        synchronized (stripe) {
+            queue = stripe.queues.computeIfAbsent(resource, r -> new LockQueue());
+            Lock held = queue.grantedTo(tid);
+            if (held != null && held.lockType.covers(lockType)) {
+                return true;
+            }
+            request = new Lock(tid, held == null ? lockType : held.lockType.combine(lockType));
+            // an upgrade would go to the front of the queue anyway
+            if ((held != null || queue.waiting.isEmpty()) && queue.compatible(request)) {
+                grant(resource, queue, held, request);
+                return true;
+            }
+            if (timeoutMillis <= 0) {
+                if (queue.isEmpty()) {
+                    stripe.queues.remove(resource);
                 }
-                //exclusive lock, grant
-                if (lock.lockType == LockType.EXCLUSIVE_LOCK) {
-                    return true;
+                return false;
+            }
+            if (held != null) {
+                queue.waiting.addFirst(request);
+            } else {
+                queue.waiting.addLast(request);
+            }
+            waiting.compute(tid, (t, requests) -> {
+                Map<Lock, Object> all = requests != null ? requests : new ConcurrentHashMap<>();
+                all.put(request, resource);
+                return all;
+            });
+        }
+
+        boolean forever = timeoutMillis == Long.MAX_VALUE;
+        long deadline = forever ? 0 : System.nanoTime() + timeoutMillis * 1000000;
+        boolean granted = false;
+        try {
+            breakDeadlocks(tid);
+            synchronized (stripe) {
+                while (true) {
+                    if (victims.contains(tid)) {
+                        throw new DeadlockException();
+                    }
+                    if (queue.waiting.peekFirst() == request && queue.compatible(request)) {
+                        granted = true;
+                        // no longer waiting, so it can no longer be chosen as a victim
+                        queue.waiting.removeFirst();
+                        grant(resource, queue, queue.grantedTo(tid), request);
+                        return true;
+                    }
+                    if (forever) {
+                        stripe.wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        stripe.wait(remaining / 1000000, (int) (remaining % 1000000));
+                    }
                 }
-                //shared lock with size = 1, upgrade
-                if (locks.size() == 1) {
-                    lock.lockType = LockType.EXCLUSIVE_LOCK;
-                    return true;
-                } else {
-                    //shared lock, size != 1, requesting xLock, reject
-                    return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // also runs if the thread is stopped while waiting
+            synchronized (stripe) {
+                queue.waiting.remove(request);
+                waiting.computeIfPresent(tid, (t, requests) -> {
+                    requests.remove(request);
+                    if (!requests.isEmpty()) {
+                        return requests;
+                    }
+                    victims.remove(tid);
+                    return null;
+                });
+                if (!granted && queue.isEmpty()) {
+                    stripe.queues.remove(resource);
+                }
+                if (!queue.waiting.isEmpty()) {
+                    // the next request may be grantable now that this one left the head
+                    stripe.notifyAll();
                 }
+            }
+        }
+    }
 
+    /** Grants request; the caller holds the resource's stripe. */
+    private void grant(Object resource, LockQueue queue, Lock held, Lock request) {
+        HeldLocks locks = heldLocks.computeIfAbsent(request.transactionId, t -> new HeldLocks());
+        if (held != null) {
+            // another thread of the transaction may have been granted more in the meantime
+            held.lockType = held.lockType.combine(request.lockType);
+        } else {
+            queue.granted.add(request);
+            if (resource instanceof PageId) {
+                locks.addPage((PageId) resource);
+            }
+        }
+        LockType mode = held != null ? held.lockType : request.lockType;
+        if (resource instanceof TableResource) {
+            locks.setTableMode(((TableResource) resource).tableId, mode);
+        }
+        if (resource instanceof PageId && mode == LockType.EXCLUSIVE_LOCK) {
+            locks.wrote(((PageId) resource).getTableId());
+        }
+    }
 
+    /** Returns the mode tid holds on the resource, or null. */
+    private LockType heldMode(TransactionId tid, Object resource) {
+        Stripe stripe = stripeOf(resource);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(resource);
+            Lock held = queue == null ? null : queue.grantedTo(tid);
+            return held == null ? null : held.lockType;
+        }
+    }
 
+    /**
+     * Replaces tid's page locks on the table by a table lock once it holds
+     * a multiple of the escalation threshold of them: SHARED if they are
+     * all shared, EXCLUSIVE otherwise. The table lock is only taken if that
+     * is possible without waiting; the intention locks of other
+     * transactions make sure none of them holds or waits for a page lock
+     * the table lock would cover.
+     */
+    private void escalateIfNeeded(TransactionId tid, int tableId) {
+        HeldLocks locks = heldLocks.get(tid);
+        int count = locks == null ? 0 : locks.pageCount(tableId);
+        if (count < escalationThreshold || count % escalationThreshold != 0) {
+            return;
+        }
+        LockType mode = locks.hasWritten(tableId) ? LockType.EXCLUSIVE_LOCK : LockType.SHARED_LOCK;
+        try {
+            if (!acquire(tid, new TableResource(tableId), mode, 0)) {
+                return;
             }
+        } catch (DeadlockException e) {
+            // acquire only throws once it has waited
+            return;
         }
-        /*
-        another transaction coming to request a lock on the same page
-         */
+        for (PageId pid : locks.removePages(tableId)) {
+            release(tid, pid);
+        }
+    }
 
-        if (locks.size() == 1 && locks.get(0).lockType == LockType.EXCLUSIVE_LOCK)
-            return false;
-        else {
-            if (lockType == LockType.SHARED_LOCK) {
-                Lock newLock = new Lock(tid, lockType);
-                locks.add(newLock);
-                transactionIdPageIdMap.put(tid, pageId);
-                return true;
-            } else {
-                return false;
+    /**
+     * Marks victims until no cycle through tid is left, or throws if tid
+     * itself is chosen. tid may close several cycles at once.
+     */
+    private void breakDeadlocks(TransactionId tid) throws DeadlockException {
+        synchronized (detector) {
+            for (TransactionId victim = chooseVictim(tid); victim != null; victim = chooseVictim(tid)) {
+                if (victim == tid) {
+                    throw new DeadlockException();
+                }
+                Map<Lock, Object> requests = waiting.get(victim);
+                if (requests == null) {
+                    continue;
+                }
+                boolean marked = false;
+                for (Map.Entry<Lock, Object> e : requests.entrySet()) {
+                    Stripe stripe = stripeOf(e.getValue());
+                    synchronized (stripe) {
+                        // the victim's requests may have been granted in the meantime;
+                        // one that is still waiting keeps the mark until it leaves
+                        if (!marked && isWaiting(stripe, e.getValue(), e.getKey())) {
+                            victims.add(victim);
+                            marked = true;
+                        }
+                        if (marked) {
+                            stripe.notifyAll();
+                        }
+                    }
+                }
             }
         }
     }
 
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-        List<Lock> l = lockMap.get(pid);
-        Iterator<Lock> iterator = l.iterator();
+    /** Returns true if request waits in the queue of resource; the caller holds stripe. */
+    private static boolean isWaiting(Stripe stripe, Object resource, Lock request) {
+        LockQueue queue = stripe.queues.get(resource);
+        return queue != null && queue.waiting.contains(request);
+    }
 
-        while (iterator.hasNext()) {
-            Lock lock = iterator.next();
-            if (lock.transactionId == tid) {
-                iterator.remove();
-                if (l.size() == 0) {
-                    releaseLocksOnaPage(pid);
+    /**
+     * Returns the transactions a waiting transaction waits for: for each of
+     * its waiting requests, those holding conflicting locks on its resource
+     * and those queued ahead of it. The edges are derived from the queues
+     * rather than stored, so the graph is always current.
+     */
+    private List<TransactionId> blockers(TransactionId tid) {
+        List<TransactionId> blockers = new ArrayList<>();
+        Map<Lock, Object> requests = waiting.get(tid);
+        if (requests == null) {
+            return blockers;
+        }
+        for (Map.Entry<Lock, Object> e : requests.entrySet()) {
+            Lock request = e.getKey();
+            Stripe stripe = stripeOf(e.getValue());
+            synchronized (stripe) {
+                LockQueue queue = stripe.queues.get(e.getValue());
+                // granted or gone since the requests were read
+                if (queue == null || !queue.waiting.contains(request)) {
+                    continue;
+                }
+                for (Lock lock : queue.waiting) {
+                    if (lock == request) {
+                        break;
+                    }
+                    if (lock.transactionId != tid) {
+                        blockers.add(lock.transactionId);
+                    }
+                }
+                for (Lock lock : queue.granted) {
+                    if (lock.transactionId != tid && !lock.lockType.compatibleWith(request.lockType)) {
+                        blockers.add(lock.transactionId);
+                    }
                 }
-                return;
             }
         }
+        return blockers;
     }
 
-    public synchronized void releaseAllLocks(TransactionId tid) {
-        for (Map.Entry<PageId, List<Lock>> entry : lockMap.entrySet()) {
-            PageId pageId = entry.getKey();
-            if (holdsLock(tid, pageId))
-                releaseLock(tid, pageId);
+    /**
+     * Searches the waits-for graph for a cycle through tid, which has just
+     * started to wait, and returns the youngest transaction on it, or null
+     * if there is none. Every new edge of the graph starts or ends at a
+     * request that starts waiting, so checking at that moment finds every
+     * deadlock. Transactions already chosen as victims are left out, since
+     * their abort breaks the cycles through them.
+     * <p>
+     * The search looks at one stripe at a time, so it may put together
+     * edges that did not exist at the same moment and abort a transaction
+     * that was about to be granted its lock. That costs a retry, but never
+     * correctness.
+     */
+    private TransactionId chooseVictim(TransactionId tid) {
+        if (victims.contains(tid)) {
+            return null;
+        }
+        Deque<TransactionId> path = new ArrayDeque<>();
+        path.push(tid);
+        if (!findCycle(tid, tid, new HashSet<>(), path)) {
+            return null;
+        }
+        TransactionId youngest = tid;
+        for (TransactionId member : path) {
+            if (member.getId() > youngest.getId()) {
+                youngest = member;
+            }
+        }
+        return youngest;
+    }
+
+    private boolean findCycle(TransactionId start, TransactionId tid, Set<TransactionId> visited,
+                              Deque<TransactionId> path) {
+        for (TransactionId blocker : blockers(tid)) {
+            if (blocker == start) {
+                return true;
+            }
+            if (waiting.containsKey(blocker) && !victims.contains(blocker) && visited.add(blocker)) {
+                path.push(blocker);
+                if (findCycle(start, blocker, visited, path)) {
+                    return true;
+                }
+                path.pop();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases tid's lock on a page. A table lock covering the page is kept.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        if (release(tid, pid)) {
+            HeldLocks locks = heldLocks.get(tid);
+            if (locks != null) {
+                locks.removePage(pid);
+            }
+        }
+    }
+
+    /** Releases tid's lock on the resource, without updating heldLocks. */
+    private boolean release(TransactionId tid, Object resource) {
+        Stripe stripe = stripeOf(resource);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(resource);
+            Lock lock = queue == null ? null : queue.grantedTo(tid);
+            if (lock == null) {
+                return false;
+            }
+            queue.granted.remove(lock);
+            stripe.released(resource, queue);
+            return true;
+        }
+    }
+
+    /**
+     * Releases every lock of tid, in time proportional to the number of
+     * locks it holds. tid must not be acquiring locks at the same time.
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        HeldLocks locks = heldLocks.remove(tid);
+        if (locks == null) {
+            return;
+        }
+        List<Object> resources = new ArrayList<>();
+        synchronized (locks) {
+            // copied out, since stripes must not be entered holding locks
+            for (Set<PageId> ofTable : locks.pages.values()) {
+                resources.addAll(ofTable);
+            }
+            for (int tableId : locks.tables.keySet()) {
+                resources.add(new TableResource(tableId));
+            }
+        }
+        for (Object resource : resources) {
+            release(tid, resource);
         }
     }
 
+    /**
+     * Drops every lock granted on the page; requests waiting for it keep
+     * waiting, and may be granted now. Table locks are not affected.
+     */
     public void releaseLocksOnaPage(PageId pageId) {
+        Stripe stripe = stripeOf(pageId);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(pageId);
+            if (queue != null) {
+                for (Lock lock : new ArrayList<>(queue.granted)) {
+                    releaseLock(lock.transactionId, pageId);
+                }
+            }
+        }
+    }
 
-        lockMap.remove(pageId);
+    /**
+     * Return true if any transaction holds a lock on the specified page.
+     * Pages covered only by a table lock do not count, so that a scan
+     * whose locks were escalated does not pin the pages it read.
+     */
+    public boolean isLocked(PageId p) {
+        Stripe stripe = stripeOf(p);
+        synchronized (stripe) {
+            LockQueue queue = stripe.queues.get(p);
+            return queue != null && !queue.granted.isEmpty();
+        }
     }
 
-    public synchronized boolean holdsLock(TransactionId tid, PageId p) {
-        if (lockMap.get(p) == null)
-            return false;
-        for (Lock lock : lockMap.get(p)) {
-            if (tid == lock.transactionId)
-                return true;
+    /**
+     * Returns true if tid holds a lock on the page itself or a table lock
+     * that lets it read the page.
+     */
+    public boolean holdsLock(TransactionId tid, PageId p) {
+        if (heldMode(tid, p) != null) {
+            return true;
         }
-        return false;
+        LockType tableMode = heldMode(tid, new TableResource(p.getTableId()));
+        return tableMode != null && tableMode.covers(LockType.SHARED_LOCK);
     }
 
 }
@@ -1,10 +1,64 @@
 package simpledb.storage;
 
 /**
+ * The lock modes of multi-granularity locking. Pages are locked SHARED or
+ * EXCLUSIVE; tables can be locked in any mode, the intention modes
+ * announcing the page locks a transaction takes inside the table.
+ *
  * @author zwen
  * @Description
  * @create 2021-12-30 9:21 下午
  */
 public enum LockType {
-    SHARED_LOCK, EXCLUSIVE_LOCK;
+    INTENTION_SHARED_LOCK, INTENTION_EXCLUSIVE_LOCK, SHARED_LOCK, SHARED_INTENTION_EXCLUSIVE_LOCK, EXCLUSIVE_LOCK;
+
+    // indexed by ordinal, in the order of the constants above
+    private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /**
+     * Returns true if two different transactions may hold this mode and
+     * other on the same resource at once.
+     */
+    public boolean compatibleWith(LockType other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * Returns the weakest mode that grants everything this mode and other
+     * grant, e.g. SIX for S and IX.
+     */
+    public LockType combine(LockType other) {
+        if (covers(other)) {
+            return this;
+        } else if (other.covers(this)) {
+            return other;
+        }
+        // the only incomparable pair is S and IX
+        return SHARED_INTENTION_EXCLUSIVE_LOCK;
+    }
+
+    /**
+     * Returns true if holding this mode grants everything other grants.
+     */
+    public boolean covers(LockType other) {
+        switch (this) {
+            case EXCLUSIVE_LOCK:
+                return true;
+            case SHARED_INTENTION_EXCLUSIVE_LOCK:
+                return other != EXCLUSIVE_LOCK;
+            case SHARED_LOCK:
+                return other == SHARED_LOCK || other == INTENTION_SHARED_LOCK;
+            case INTENTION_EXCLUSIVE_LOCK:
+                return other == INTENTION_EXCLUSIVE_LOCK || other == INTENTION_SHARED_LOCK;
+            default:
+                return other == INTENTION_SHARED_LOCK;
+        }
+    }
 }
@@ -37,6 +37,13 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<p>
+BufferPool itself no longer synchronizes on the pool: it locks one shard at
+a time and never holds a shard lock while it writes log records, so the
+block above only keeps log maintenance (abort, checkpoint, recovery) from
+running concurrently with itself. BufferPool does lock shards while it holds
+this log's monitor, which is what orders its page cleaner against rollback.
 */
 
 /**
@@ -283,7 +290,15 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            // pages are rebuilt with their (PageId, byte[]) constructor
+            Constructor<?> pageConst = pageConsts[0];
+            for (Constructor<?> c : pageConsts) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
@@ -478,8 +493,13 @@ public class LogFile {
                 // some code goes here
                 Long firstLogRecord = tidToFirstLogRecord.get(tid.getId());
                 //移动到日志开始的地方
-                raf.seek(firstLogRecord);
-                //Set<PageId> set = new HashSet<>();
+                // a transaction that never logged BEGIN may still have had
+                // pages stolen; its records can be anywhere in the log
+                raf.seek(firstLogRecord != null ? firstLogRecord : LONG_SIZE);
+                // only the first record of a page holds the committed
+                // contents: a stolen page that was read back has the
+                // transaction's own changes as its before image
+                Set<PageId> restored = new HashSet<>();
                 while (true) {
                     try {
                         //Each log record begins with an integer type and a long integer
@@ -495,9 +515,7 @@ public class LogFile {
                                 Page beforeImage = readPageData(raf);
                                 Page afterImage = readPageData(raf);
                                 PageId pageId = beforeImage.getId();
-                                // && !set.contains(pageId)
-                                if (txid == tid.getId()) {
-                                    //set.add(pageId);
+                                if (txid == tid.getId() && restored.add(pageId)) {
                                     Database.getBufferPool().discardPage(pageId);
                                     Database.getCatalog().getDatabaseFile(pageId.getTableId()).writePage(beforeImage);
                                 }
@@ -524,6 +542,7 @@ public class LogFile {
                         break;
                     }
                 }
+                Database.getBufferPool().rolledBack(tid);
             }
         }
     }
@@ -557,7 +576,8 @@ public class LogFile {
 //                raf = new RandomAccessFile(logFile, "rw");
                 raf.seek(0);
                 //已提交的事务id集合
-                Set<Long> committedId = new HashSet<>();
+                // redo in commit order, so that later after-images win
+                Set<Long> committedId = new LinkedHashSet<>();
                 //存放事务id对应的beforePage和afterPage
                 Map<Long, List<Page>> beforePages = new HashMap<>();
                 Map<Long, List<Page>> afterPages = new HashMap<>();
@@ -607,7 +627,11 @@ public class LogFile {
                 for (long txid :beforePages.keySet()) {
                     if (!committedId.contains(txid)) {
                         List<Page> pages = beforePages.get(txid);
+                        Set<PageId> restored = new HashSet<>();
                         for (Page p : pages) {
+                            if (!restored.add(p.getId())) {
+                                continue;
+                            }
                             Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
                         }
                     }
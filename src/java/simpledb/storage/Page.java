@@ -55,7 +55,8 @@ public interface Page {
 
     /*
      * a transaction that wrote this page just committed it.
-     * copy current content to the before image.
+     * the current content becomes the before image; implementations copy it
+     * lazily, when the next modification of the page starts.
      */
     void setBeforeImage();
 }
@@ -0,0 +1,207 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * PageChannel is the page I/O layer shared by HeapFile and BTreeFile. It keeps
+ * one FileChannel open for the lifetime of a DbFile and reads and writes pages
+ * with positional I/O, so a page miss costs a single pread instead of an
+ * open, a skip and a close.
+ * <p>
+ * Positional reads and writes never move the channel's file pointer, so
+ * concurrent callers do not have to coordinate with each other. Every thread
+ * reuses its own direct ByteBuffer for the transfer, which saves the JDK from
+ * staging each page through a temporary buffer.
+ * <p>
+ * The channel is opened on first use and reopened if it was closed, either
+ * explicitly by {@link #close} or because a thread was interrupted in the
+ * middle of an I/O call.
+ *
+ * @Threadsafe
+ */
+public class PageChannel implements Closeable {
+
+    private final File f;
+    private volatile FileChannel channel;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+    private final Object gatherLock = new Object();
+
+    /**
+     * @param f the file this channel reads pages from and writes pages to.
+     */
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc == null || !fc.isOpen()) {
+            synchronized (this) {
+                fc = channel;
+                if (fc == null || !fc.isOpen()) {
+                    fc = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = fc;
+                }
+            }
+        }
+        return fc;
+    }
+
+    /**
+     * Returns the channel reopened after another thread closed it, e.g. by
+     * being interrupted during I/O on it, or rethrows e if this thread was
+     * interrupted itself.
+     */
+    private FileChannel reopened(ClosedChannelException e) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+        return channel();
+    }
+
+    /**
+     * Returns this thread's transfer buffer, cleared and limited to len bytes.
+     */
+    private ByteBuffer buffer(int len) {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() < len) {
+            buf = ByteBuffer.allocateDirect(len);
+            buffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    /**
+     * Reads up to dst.length bytes starting at position in the file.
+     *
+     * @param position the file offset to start reading at
+     * @param dst the array to fill; bytes past the end of the file are left untouched
+     * @return the number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public int read(long position, byte[] dst) throws IOException {
+        if (channel == null && !f.exists()) {
+            return -1;
+        }
+        FileChannel fc = channel();
+        ByteBuffer buf = buffer(dst.length);
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n;
+            try {
+                n = fc.read(buf, position + total);
+            } catch (ClosedChannelException e) {
+                fc = reopened(e);
+                continue;
+            }
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        if (total == 0 && dst.length > 0) {
+            return -1;
+        }
+        buf.flip();
+        buf.get(dst, 0, total);
+        return total;
+    }
+
+    /**
+     * Writes all of src to the file starting at position, growing the file if needed.
+     */
+    public void write(long position, byte[] src) throws IOException {
+        FileChannel fc = channel();
+        ByteBuffer buf = buffer(src.length);
+        buf.put(src);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            try {
+                position += fc.write(buf, position);
+            } catch (ClosedChannelException e) {
+                fc = reopened(e);
+            }
+        }
+    }
+
+    /**
+     * Writes srcs back to back to the file starting at position with
+     * gathering writes, so a run of adjacent pages costs one system call
+     * instead of one per page.
+     */
+    public void write(long position, byte[][] srcs) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[srcs.length];
+        for (int i = 0; i < srcs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(srcs[i]);
+        }
+        FileChannel fc = channel();
+        // gathering writes go through the file pointer, which positional
+        // reads and writes ignore but other gathering writes share
+        synchronized (gatherLock) {
+            int i = 0;
+            while (i < bufs.length) {
+                try {
+                    // a reopened channel starts at offset 0
+                    fc.position(position);
+                    position += fc.write(bufs, i, bufs.length - i);
+                } catch (ClosedChannelException e) {
+                    fc = reopened(e);
+                    continue;
+                }
+                while (i < bufs.length && !bufs[i].hasRemaining()) {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends src to the end of the file.
+     *
+     * @return the file offset src was written at
+     */
+    public synchronized long append(byte[] src) throws IOException {
+        long position = channel().size();
+        write(position, src);
+        return position;
+    }
+
+    /**
+     * Returns the current size of the file in bytes.
+     */
+    public long size() throws IOException {
+        if (channel == null && !f.exists()) {
+            return 0;
+        }
+        return channel().size();
+    }
+
+    /**
+     * Maps size bytes of the file starting at position into memory, read only.
+     * The mapping stays valid after this channel is closed and sees every
+     * later write made through {@link #write}.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Closes the underlying FileChannel. The channel is reopened if this
+     * PageChannel is used again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
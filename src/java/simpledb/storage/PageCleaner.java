@@ -0,0 +1,110 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner is a background thread that writes dirty pages out of a STEAL
+ * BufferPool before the pool runs out of clean pages, so that a transaction
+ * dirtying more pages than the pool holds does not have to stop and write
+ * one at every miss. See {@link BufferPool#cleanPages} for which pages it
+ * picks and how the writes are ordered against the log.
+ * <p>
+ * The cleaner wakes up every {@link #INTERVAL_MILLIS} ms and writes at most
+ * {@link #getPagesPerSecond()} pages per second, so that it does not take
+ * all of the disk away from foreground reads. It stops by itself once its
+ * pool is no longer the one {@link Database#getBufferPool()} returns.
+ */
+public class PageCleaner {
+
+    /** Default number of pages written per second. */
+    public static final int DEFAULT_PAGES_PER_SECOND = 2000;
+
+    /** Time between two sweeps. */
+    public static final int INTERVAL_MILLIS = 10;
+
+    private final BufferPool pool;
+    private final Thread thread;
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private volatile int pagesPerSecond;
+    private volatile boolean running = true;
+
+    /**
+     * @param pool the pool to clean; must run in STEAL mode
+     * @param pagesPerSecond the most pages to write per second
+     */
+    public PageCleaner(BufferPool pool, int pagesPerSecond) {
+        if (!pool.isSteal()) {
+            throw new IllegalArgumentException("only STEAL pools can be cleaned");
+        }
+        this.pool = pool;
+        setPagesPerSecond(pagesPerSecond);
+        thread = new Thread(this::run, "simpledb-page-cleaner");
+        thread.setDaemon(true);
+    }
+
+    public PageCleaner(BufferPool pool) {
+        this(pool, DEFAULT_PAGES_PER_SECOND);
+    }
+
+    /**
+     * Sets the most pages written per second; takes effect at the next sweep.
+     */
+    public void setPagesPerSecond(int pagesPerSecond) {
+        if (pagesPerSecond <= 0) {
+            throw new IllegalArgumentException("page cleaner rate must be positive");
+        }
+        this.pagesPerSecond = pagesPerSecond;
+    }
+
+    public int getPagesPerSecond() {
+        return pagesPerSecond;
+    }
+
+    /**
+     * Returns the number of pages written so far.
+     */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    public PageCleaner start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Stops the cleaner and waits for the sweep in progress to finish.
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+    }
+
+    private void run() {
+        // pages the cleaner may write, earned at pagesPerSecond and capped
+        // at one sweep's worth so that idle time is not saved up
+        double credit = 0;
+        while (running && Database.getBufferPool() == pool) {
+            double perSweep = pagesPerSecond * INTERVAL_MILLIS / 1000.0;
+            credit = Math.min(credit + perSweep, Math.max(1, perSweep));
+            if (credit >= 1) {
+                try {
+                    int written = pool.cleanPages((int) credit);
+                    pagesWritten.addAndGet(written);
+                    credit -= written;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PageMapping maps the pages of a file into memory in fixed size regions of
+ * {@link #REGION_PAGES} pages each and hands out read-only slices of single
+ * pages. Only whole pages that lie inside the file are ever handed out; when
+ * a page past the mapped range is requested, the last, partially filled
+ * region is remapped together with any regions the file has grown into.
+ * Regions that are already full are never remapped.
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, boolean)
+ * @Threadsafe
+ */
+class PageMapping {
+
+    /** Number of pages covered by one mapped region. */
+    static final int REGION_PAGES = 1024;
+
+    private final PageChannel channel;
+
+    /**
+     * The mapped regions together with the number of pages they cover and
+     * the page size they were mapped with. Readers take one snapshot and
+     * only look at that, so a concurrent remap or clear cannot change the
+     * regions under them.
+     */
+    private static final class Regions {
+        final MappedByteBuffer[] buffers;
+        final int pages;
+        final int pageSize;
+
+        Regions(MappedByteBuffer[] buffers, int pages, int pageSize) {
+            this.buffers = buffers;
+            this.pages = pages;
+            this.pageSize = pageSize;
+        }
+    }
+
+    private static final Regions EMPTY = new Regions(new MappedByteBuffer[0], 0, 0);
+
+    /** Snapshot of the mapped regions, replaced as a whole on remap. */
+    private volatile Regions regions = EMPTY;
+
+    PageMapping(PageChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns a read-only buffer over page pgNo, or null if the page is not
+     * completely contained in the file.
+     */
+    ByteBuffer page(int pgNo) throws IOException {
+        int size = BufferPool.getPageSize();
+        Regions current = regions;
+        if (pgNo >= current.pages || size != current.pageSize) {
+            current = remap();
+            if (pgNo >= current.pages || size != current.pageSize) {
+                return null;
+            }
+        }
+        MappedByteBuffer region = current.buffers[pgNo / REGION_PAGES];
+        ByteBuffer slice = region.duplicate();
+        int offset = (pgNo % REGION_PAGES) * size;
+        slice.position(offset);
+        slice.limit(offset + size);
+        return slice.slice();
+    }
+
+    /**
+     * Extends the mapping to every whole page currently in the file.
+     *
+     * @return the new snapshot of the regions
+     */
+    private synchronized Regions remap() throws IOException {
+        int size = BufferPool.getPageSize();
+        MappedByteBuffer[] current = regions.buffers;
+        int firstStale = current.length;
+        if (size != regions.pageSize) {
+            // the page size was changed (only done by tests); start over
+            current = new MappedByteBuffer[0];
+            firstStale = 0;
+        } else if (firstStale > 0 && current[firstStale - 1].capacity() < REGION_PAGES * size) {
+            firstStale--;
+        }
+
+        int pages = (int) (channel.size() / size);
+        int numRegions = (pages + REGION_PAGES - 1) / REGION_PAGES;
+        MappedByteBuffer[] next = Arrays.copyOf(current, Math.max(numRegions, firstStale));
+        for (int r = firstStale; r < numRegions; r++) {
+            int regionPages = Math.min(REGION_PAGES, pages - r * REGION_PAGES);
+            next[r] = channel.map((long) r * REGION_PAGES * size, (long) regionPages * size);
+        }
+        Regions remapped = new Regions(next, pages, size);
+        regions = remapped;
+        return remapped;
+    }
+
+    /**
+     * Drops all mapped regions; they are unmapped once garbage collected.
+     */
+    synchronized void clear() {
+        regions = EMPTY;
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Debug;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntPredicate;
+
+/**
+ * ReadAheadPrefetcher watches the pages a single scan asks for and, once it
+ * sees sequential access, asks background threads to read the next
+ * {@link #getWindow()} pages into the BufferPool. By the time the scan gets
+ * to those pages they are usually cached, so the scan no longer blocks on a
+ * disk read at every page boundary.
+ * <p>
+ * Prefetched pages go through {@link BufferPool#prefetchPage}, which takes no
+ * locks and never evicts a dirty page or a page some transaction holds a
+ * lock on. The scan still locks each page itself when it gets to it.
+ * <p>
+ * One prefetcher is used per open iterator; the background threads are
+ * shared by all of them.
+ */
+public class ReadAheadPrefetcher {
+
+    /** Default number of pages read ahead of the scan. */
+    public static final int DEFAULT_WINDOW = 8;
+
+    private static final int NUM_THREADS = 2;
+
+    private static volatile int window = DEFAULT_WINDOW;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS, r -> {
+        Thread t = new Thread(r, "simpledb-readahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int tableId;
+    private final IntPredicate wanted;
+    private int lastPage = -1;
+    private int prefetchedUpTo = -1;
+    private BufferRing ring;
+
+    /**
+     * @param tableId the table the scan using this prefetcher reads
+     */
+    public ReadAheadPrefetcher(int tableId) {
+        this(tableId, pgNo -> true);
+    }
+
+    /**
+     * @param tableId the table the scan using this prefetcher reads
+     * @param wanted tells which pages the scan will actually read; pages it
+     *               is going to skip are not prefetched
+     */
+    public ReadAheadPrefetcher(int tableId, IntPredicate wanted) {
+        this.tableId = tableId;
+        this.wanted = wanted;
+    }
+
+    /**
+     * Sets the number of pages read ahead of sequential scans. A window of
+     * 0 turns read-ahead off.
+     */
+    public static void setWindow(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("read-ahead window must not be negative");
+        }
+        window = pages;
+    }
+
+    public static int getWindow() {
+        return window;
+    }
+
+    /**
+     * Tells the prefetcher that the scan is about to read page pgNo. If this
+     * continues a sequential run (a scan starting where it was last reset
+     * counts as one), the pages after pgNo that have not been prefetched yet
+     * are queued.
+     *
+     * @param pgNo the page the scan is reading
+     * @param numPages the number of pages in the table, or the page after
+     *                 the last one the scan reads
+     */
+    public void pageAccessed(int pgNo, int numPages) {
+        boolean sequential = pgNo == lastPage + 1;
+        lastPage = pgNo;
+        int w = window;
+        if (!sequential || w == 0) {
+            prefetchedUpTo = pgNo;
+            return;
+        }
+        int last = Math.min(pgNo + w, numPages - 1);
+        for (int p = Math.max(prefetchedUpTo, pgNo) + 1; p <= last; p++) {
+            if (!wanted.test(p)) {
+                continue;
+            }
+            final HeapPageId pid = new HeapPageId(tableId, p);
+            final BufferRing r = ring;
+            executor.execute(() -> {
+                try {
+                    Database.getBufferPool().prefetchPage(pid, r);
+                } catch (RuntimeException e) {
+                    // read-ahead is only a hint; the scan reads the page itself
+                    Debug.log(1, "ReadAheadPrefetcher: failed to prefetch %s: %s", pid, e);
+                }
+            });
+        }
+        prefetchedUpTo = Math.max(prefetchedUpTo, last);
+    }
+
+    /**
+     * Tells the prefetcher that the scan skipped page pgNo without reading
+     * it. The page still counts as part of a sequential run, so the scan
+     * keeps being prefetched past it.
+     *
+     * @param pgNo the page the scan skipped
+     */
+    public void pageSkipped(int pgNo) {
+        if (pgNo == lastPage + 1) {
+            lastPage = pgNo;
+        }
+    }
+
+    /**
+     * Sets the ring the scan reads its pages through, so that prefetched
+     * pages go into it as well; null prefetches into the whole pool.
+     */
+    public void setRing(BufferRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * Forgets the access history, e.g. when the scan is rewound.
+     */
+    public void reset() {
+        reset(0);
+    }
+
+    /**
+     * Forgets the access history of a scan that now starts at page pgNo.
+     */
+    public void reset(int pgNo) {
+        lastPage = pgNo - 1;
+        prefetchedUpTo = pgNo - 1;
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * A Replacer decides which page the {@link BufferPool} gives up when it needs
+ * room for another one. The BufferPool tells it about every page that enters
+ * the pool, every hit on a cached page and every page that leaves the pool
+ * for another reason, and asks it for a victim when the pool is full.
+ * <p>
+ * {@link #recordAccess} is called on every cache hit, usually by many threads
+ * at once, and should be cheap; the other methods are only called when the
+ * contents of the pool change.
+ *
+ * @Threadsafe
+ */
+public interface Replacer {
+
+    /**
+     * Starts tracking a page that was just added to the pool. The page
+     * counts as accessed once.
+     */
+    void add(PageId pid);
+
+    /**
+     * Records a hit on a page that is being tracked. Does nothing if the
+     * page is not tracked (any more).
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Stops tracking a page that left the pool without being chosen by
+     * {@link #victim}. Does nothing if the page is not tracked.
+     */
+    void remove(PageId pid);
+
+    /**
+     * Chooses a page to evict among the tracked pages that evictable accepts
+     * and stops tracking it.
+     *
+     * @param evictable tells whether a page may be evicted right now, e.g.
+     *          because it is clean and unlocked
+     * @return the page to evict, or null if no tracked page is evictable
+     */
+    PageId victim(Predicate<PageId> evictable);
+
+    /**
+     * Returns the number of pages being tracked.
+     */
+    int size();
+}
@@ -206,6 +206,25 @@ public class TupleDesc implements Serializable {
         return res;
     }
 
+    /**
+     * Returns a TupleDesc holding only the given fields of this TupleDesc,
+     * in the order they are listed.
+     *
+     * @param columns indexes of the fields to keep
+     * @return the projected TupleDesc
+     * @throws NoSuchElementException if an index is not a valid field reference
+     */
+    public TupleDesc project(int[] columns) throws NoSuchElementException {
+        TDItem[] items = new TDItem[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] < 0 || columns[i] >= length) {
+                throw new NoSuchElementException("no field " + columns[i]);
+            }
+            items[i] = tdItems[columns[i]];
+        }
+        return new TupleDesc(items);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
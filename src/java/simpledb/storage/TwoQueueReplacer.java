@@ -0,0 +1,122 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * A scan resistant replacer implementing the 2Q algorithm (Johnson and
+ * Shasha, VLDB 1994). A page enters a small probationary FIFO queue, A1in,
+ * and is not promoted while it stays there, however often it is hit: a
+ * sequential scan touches each of its pages a few times in a row and then
+ * never again. A page evicted from A1in is remembered, by id only, in the
+ * ghost queue A1out. Only a page that is read again while it is remembered
+ * there has proven to be reused and enters the main LRU queue, Am.
+ * <p>
+ * A large SeqScan therefore only cycles pages through A1in, while pages that
+ * are reused over a longer period, like the internal pages of a B+ tree, stay
+ * in Am.
+ * <p>
+ * All methods take the replacer's monitor.
+ *
+ * @Threadsafe
+ */
+public class TwoQueueReplacer implements Replacer {
+
+    /** Pages seen once recently, oldest first. */
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    /** Ids of pages recently evicted from a1in, oldest first. */
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    /** Pages that proved to be reused, least recently used first. */
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+    private final int maxIn;
+    private final int maxOut;
+
+    /**
+     * Creates a 2Q replacer with the tuning suggested by the paper: A1in
+     * holds a quarter of the pool and A1out remembers half as many pages as
+     * the pool holds.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public TwoQueueReplacer(int capacity) {
+        this(capacity, Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     * @param maxIn the number of pages A1in holds before it is evicted from
+     *          first
+     * @param maxOut the number of evicted page ids A1out remembers
+     */
+    public TwoQueueReplacer(int capacity, int maxIn, int maxOut) {
+        this.maxIn = Math.min(maxIn, capacity);
+        this.maxOut = maxOut;
+    }
+
+    @Override
+    public synchronized void add(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            recordAccess(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void recordAccess(PageId pid) {
+        // hits on a1in are correlated references and do not promote
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void remove(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+        a1out.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId victim(Predicate<PageId> evictable) {
+        boolean fromIn = a1in.size() > maxIn || am.isEmpty();
+        PageId victim = evictFrom(fromIn ? a1in : am, evictable);
+        if (victim == null) {
+            // every page of that queue is pinned; try the other one
+            fromIn = !fromIn;
+            victim = evictFrom(fromIn ? a1in : am, evictable);
+        }
+        if (victim != null && fromIn) {
+            a1out.add(victim);
+            if (a1out.size() > maxOut) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Removes and returns the oldest evictable page of queue, or null.
+     */
+    private static PageId evictFrom(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (Iterator<PageId> it = queue.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return a1in.size() + am.size();
+    }
+}
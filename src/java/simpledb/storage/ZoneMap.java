@@ -0,0 +1,263 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and largest
+ * value of each INT_TYPE column, so that a scan with a range predicate can
+ * skip pages that cannot hold a matching tuple without reading them. On
+ * tables loaded in key order (e.g. time-ordered appends) a range filter then
+ * only reads the few pages whose range overlaps it.
+ * <p>
+ * A summary only has to contain every value of its page, it does not have
+ * to be tight: inserts widen it, deletes leave it alone, and it is
+ * recomputed exactly whenever the page is written to disk. A summary built
+ * from a page read from disk is merged into the one already known, so a
+ * stale read never hides a tuple inserted in memory. Pages without a
+ * summary, e.g. pages appended by HeapFileEncoder, are always read.
+ * <p>
+ * The map is persisted in a sidecar file next to the table (the table's file
+ * name plus ".zm") when the HeapFile is closed, and read back when the
+ * HeapFile is created. Unlike the {@link FreeSpaceMap} it is not a hint, so a
+ * sidecar is ignored unless the table file still has the length and
+ * modification time it had when the sidecar was written.
+ *
+ * @Threadsafe
+ */
+class ZoneMap {
+
+    private final File file;
+    private final File sidecar;
+    /** Indexes of the INT_TYPE columns of the table. */
+    private final int[] columns;
+    /** Maps a table column to its position in columns, or -1. */
+    private final int[] position;
+    /** Pages that have a summary. */
+    private final BitSet known = new BitSet();
+    /** min and max of column columns[c] on page p are at p * columns.length + c. */
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+
+    /**
+     * @param file the table file the map describes
+     * @param sidecar the file the map is persisted in
+     * @param td the schema of the table
+     */
+    ZoneMap(File file, File sidecar, TupleDesc td) {
+        this.file = file;
+        this.sidecar = sidecar;
+        this.position = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            position[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.columns = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (position[i] >= 0) {
+                columns[position[i]] = i;
+            }
+        }
+        load();
+    }
+
+    /**
+     * Loads the persisted map, before anything can change the table file.
+     */
+    private void load() {
+        if (columns.length == 0 || !sidecar.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(sidecar)))) {
+            int pageSize = dis.readInt();
+            long length = dis.readLong();
+            long lastModified = dis.readLong();
+            int numColumns = dis.readInt();
+            if (pageSize != BufferPool.getPageSize() || length != file.length()
+                    || lastModified != file.lastModified() || numColumns != columns.length) {
+                return;
+            }
+            long[] words = new long[dis.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = dis.readLong();
+            }
+            int[] mins = new int[dis.readInt()];
+            int[] maxs = new int[mins.length];
+            for (int i = 0; i < mins.length; i++) {
+                mins[i] = dis.readInt();
+                maxs[i] = dis.readInt();
+            }
+            known.or(BitSet.valueOf(words));
+            this.mins = mins;
+            this.maxs = maxs;
+        } catch (IOException e) {
+            // a damaged map is rebuilt from the pages
+            known.clear();
+            mins = new int[0];
+            maxs = new int[0];
+        }
+    }
+
+    private void ensureCapacity(int pgNo) {
+        int needed = (pgNo + 1) * columns.length;
+        if (needed > mins.length) {
+            int size = Math.max(needed, mins.length * 2);
+            mins = Arrays.copyOf(mins, size);
+            maxs = Arrays.copyOf(maxs, size);
+        }
+    }
+
+    /**
+     * Replaces the summary of a page by the exact range of its values; used
+     * when the page is written to disk.
+     */
+    synchronized void set(int pgNo, HeapPage page) {
+        if (columns.length == 0) {
+            return;
+        }
+        known.clear(pgNo);
+        include(pgNo, page);
+    }
+
+    /**
+     * Widens the summary of a page to cover all the values on it; used when
+     * the page is read from disk.
+     */
+    synchronized void include(int pgNo, HeapPage page) {
+        if (columns.length == 0) {
+            return;
+        }
+        startSummary(pgNo);
+        int base = pgNo * columns.length;
+        for (int slot = 0; slot < page.getNumSlots(); slot++) {
+            if (!page.isSlotUsed(slot)) {
+                continue;
+            }
+            for (int c = 0; c < columns.length; c++) {
+                int value = page.getInt(slot, columns[c]);
+                mins[base + c] = Math.min(mins[base + c], value);
+                maxs[base + c] = Math.max(maxs[base + c], value);
+            }
+        }
+    }
+
+    /**
+     * Widens the summary of a page to cover a tuple inserted into it.
+     */
+    synchronized void include(int pgNo, Tuple t) {
+        if (columns.length == 0) {
+            return;
+        }
+        startSummary(pgNo);
+        int base = pgNo * columns.length;
+        for (int c = 0; c < columns.length; c++) {
+            int value = ((IntField) t.getField(columns[c])).getValue();
+            mins[base + c] = Math.min(mins[base + c], value);
+            maxs[base + c] = Math.max(maxs[base + c], value);
+        }
+    }
+
+    /**
+     * Gives a page without a summary an empty one, i.e. min > max.
+     */
+    private void startSummary(int pgNo) {
+        ensureCapacity(pgNo);
+        if (!known.get(pgNo)) {
+            int base = pgNo * columns.length;
+            Arrays.fill(mins, base, base + columns.length, Integer.MAX_VALUE);
+            Arrays.fill(maxs, base, base + columns.length, Integer.MIN_VALUE);
+            known.set(pgNo);
+        }
+    }
+
+    /**
+     * Returns false if no tuple on page pgNo can satisfy all of the
+     * predicates, true if some may (or the page has no summary).
+     *
+     * @param predicates conditions on the columns of the table
+     */
+    synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        if (columns.length == 0) {
+            return true;
+        }
+        if (!known.get(pgNo)) {
+            return true;
+        }
+        int base = pgNo * columns.length;
+        for (Predicate p : predicates) {
+            int c = position[p.getField()];
+            if (c < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int min = mins[base + c];
+            int max = maxs[base + c];
+            if (min > max) {
+                // the page held no tuples
+                return false;
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean overlaps;
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    overlaps = min <= v && v <= max;
+                    break;
+                case NOT_EQUALS:
+                    overlaps = min != v || max != v;
+                    break;
+                case GREATER_THAN:
+                    overlaps = max > v;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    overlaps = max >= v;
+                    break;
+                case LESS_THAN:
+                    overlaps = min < v;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    overlaps = min <= v;
+                    break;
+                default:
+                    overlaps = true;
+            }
+            if (!overlaps) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the map to its sidecar file. Must be called after the last
+     * write to the table file, since the sidecar records its length and
+     * modification time.
+     */
+    synchronized void save() throws IOException {
+        if (known.isEmpty()) {
+            return;
+        }
+        long[] words = known.toLongArray();
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+            dos.writeInt(BufferPool.getPageSize());
+            dos.writeLong(file.length());
+            dos.writeLong(file.lastModified());
+            dos.writeInt(columns.length);
+            dos.writeInt(words.length);
+            for (long word : words) {
+                dos.writeLong(word);
+            }
+            dos.writeInt(mins.length);
+            for (int i = 0; i < mins.length; i++) {
+                dos.writeInt(mins[i]);
+                dos.writeInt(maxs[i]);
+            }
+        }
+    }
+}
@@ -51,7 +51,13 @@ public class Transaction {
             } 
 
             // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            try {
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            } catch (UncheckedIOException e) {
+                // the pages could not be written and the transaction was rolled back
+                started = false;
+                throw e.getCause();
+            }
 
             // write commit log record
             if (!abort) {
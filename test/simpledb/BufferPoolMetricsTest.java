@@ -0,0 +1,113 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolMetrics;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolMetricsTest extends SimpleDbTestBase {
+
+    /**
+     * Hits and misses are counted per table
+     */
+    @Test public void hitsAndMissesPerTable() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertSame(pool.getMetrics(), Database.getBufferPoolMetrics());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            for (int pgNo = 0; pgNo < a.numPages(); pgNo++) {
+                pool.getPage(tid, new HeapPageId(a.getId(), pgNo), Permissions.READ_ONLY);
+            }
+            pool.getPage(tid, new HeapPageId(b.getId(), 0), Permissions.READ_ONLY);
+        }
+        pool.transactionComplete(tid);
+
+        BufferPoolMetrics.Snapshot snapshot = Database.getBufferPoolMetrics().snapshot();
+        assertEquals(3, snapshot.misses(a.getId()));
+        assertEquals(3, snapshot.hits(a.getId()));
+        assertEquals(1, snapshot.misses(b.getId()));
+        assertEquals(1, snapshot.hits(b.getId()));
+        assertEquals(0.5, snapshot.hitRatio(), 1e-9);
+        assertEquals(4, snapshot.cachedPages());
+        assertEquals(BufferPool.DEFAULT_PAGES, snapshot.capacity());
+        assertEquals(8, snapshot.lockGrants());
+        assertEquals(0, snapshot.deadlocks());
+        assertTrue(snapshot.toString().contains("table " + a.getId() + ": 3 hits, 3 misses"));
+    }
+
+    /**
+     * Evictions and pages written at commit are counted
+     */
+    @Test public void evictionsAndFlushes() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool pool = Database.resetBufferPool(2);
+
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            pool.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        pool.insertTuple(tid, f.getId(), Utility.getHeapTuple(1, 2));
+        BufferPoolMetrics.Snapshot snapshot = pool.getMetrics().snapshot();
+        assertTrue(snapshot.evictions() >= 1);
+        assertEquals(0, snapshot.dirtyEvictions());
+        assertEquals(1, snapshot.dirtyPages());
+        assertEquals(0, snapshot.pagesFlushed());
+
+        pool.transactionComplete(tid);
+        snapshot = pool.getMetrics().snapshot();
+        assertEquals(1, snapshot.pagesFlushed());
+        assertEquals(0, snapshot.dirtyPages());
+    }
+
+    /**
+     * Every lock grant lands in one bucket of the lock wait histogram
+     */
+    @Test public void lockWaitHistogram() throws Exception {
+        assertEquals(1, BufferPoolMetrics.bucketLimitMicros(0));
+        assertEquals(1024, BufferPoolMetrics.bucketLimitMicros(10));
+        assertEquals(Long.MAX_VALUE, BufferPoolMetrics.bucketLimitMicros(BufferPoolMetrics.WAIT_BUCKETS - 1));
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, pool.getMetrics().snapshot().lockWaitQuantileMicros(0.99));
+
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            pool.getPage(tid, new HeapPageId(f.getId(), pgNo), Permissions.READ_WRITE);
+        }
+        pool.transactionComplete(tid);
+
+        BufferPoolMetrics.Snapshot snapshot = pool.getMetrics().snapshot();
+        long[] histogram = snapshot.lockWaitHistogram();
+        assertEquals(BufferPoolMetrics.WAIT_BUCKETS, histogram.length);
+        long grants = 0;
+        for (long count : histogram) {
+            grants += count;
+        }
+        assertEquals(3, grants);
+        assertTrue(snapshot.lockWaitQuantileMicros(0.99) >= 1);
+        assertTrue(snapshot.lockWaitNanos() >= 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolMetricsTest.class);
+    }
+}
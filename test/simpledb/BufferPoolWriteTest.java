@@ -4,8 +4,10 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
@@ -66,6 +68,45 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	}
     }
     
+    // class that holds up page reads of one thread after reading the page
+    static class HeapFileSlowReads extends HeapFile {
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        volatile Thread slow;
+
+        public HeapFileSlowReads(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            Page page = super.readPage(pid);
+            if (Thread.currentThread() == slow) {
+                read.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return page;
+        }
+    }
+
+    // class whose batch writes fail after writing the first page
+    static class HeapFileFailingWrites extends HeapFile {
+
+        public HeapFileFailingWrites(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            super.writePages(pages.subList(0, 1));
+            throw new IOException("disk full");
+        }
+    }
+
     /**
      * Set up initial resources for each unit test.
      */
@@ -136,6 +177,97 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
         }
     }
     
+    /**
+     * Unit test for BufferPool.transactionComplete(): committing one
+     * transaction must not touch the pages another transaction dirtied
+     */
+    @Test public void commitOnlyTouchesOwnPages() throws Exception {
+        Tuple t = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_ONLY);
+        assertEquals(503, p.getNumEmptySlots());
+
+        TransactionId other = new TransactionId();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.getBufferPool().getPage(other, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        Database.getBufferPool().transactionComplete(other);
+
+        assertEquals(tid, p.isDirty());
+        assertEquals(504, p.getBeforeImage().getNumEmptySlots());
+
+        Database.getBufferPool().transactionComplete(tid);
+        assertNull(p.isDirty());
+        assertEquals(503, p.getBeforeImage().getNumEmptySlots());
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage(): a prefetch must not cache a
+     * copy that a transaction changed, committed and evicted while the
+     * prefetch was reading it
+     */
+    @Test public void prefetchDropsStaleCopy() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapFileSlowReads slow = new HeapFileSlowReads(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        BufferPool pool = Database.resetBufferPool(1);
+        HeapPageId p0 = new HeapPageId(slow.getId(), 0);
+        HeapPageId p1 = new HeapPageId(slow.getId(), 1);
+
+        Thread prefetcher = new Thread(() -> pool.prefetchPage(p0));
+        slow.slow = prefetcher;
+        prefetcher.start();
+        slow.read.await();
+
+        // delete a tuple of the page, commit it to disk and evict the page
+        TransactionId writer = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(writer, p0, Permissions.READ_WRITE);
+        pool.deleteTuple(writer, page.iterator().next());
+        pool.transactionComplete(writer);
+        TransactionId reader = new TransactionId();
+        pool.getPage(reader, p1, Permissions.READ_ONLY);
+        pool.transactionComplete(reader);
+
+        slow.resume.countDown();
+        prefetcher.join();
+        page = (HeapPage) pool.getPage(tid, p0, Permissions.READ_ONLY);
+        assertEquals(1, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete(): a commit whose pages
+     * cannot be written fails, rolls back the page that did reach the disk
+     * and releases its locks
+     */
+    @Test public void failedCommitRollsBack() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapFileFailingWrites failing = new HeapFileFailingWrites(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId p0 = new HeapPageId(failing.getId(), 0);
+        HeapPageId p1 = new HeapPageId(failing.getId(), 1);
+
+        TransactionId writer = new TransactionId();
+        for (HeapPageId pid : new HeapPageId[]{p0, p1}) {
+            HeapPage page = (HeapPage) pool.getPage(writer, pid, Permissions.READ_WRITE);
+            pool.deleteTuple(writer, page.iterator().next());
+        }
+        try {
+            pool.transactionComplete(writer);
+            fail("commit reported success without writing its pages");
+        } catch (UncheckedIOException expected) {
+            // the second page was never written
+        }
+
+        assertFalse(pool.holdsLock(writer, p0));
+        assertEquals(0, ((HeapPage) failing.readPage(p0)).getNumEmptySlots());
+        for (HeapPageId pid : new HeapPageId[]{p0, p1}) {
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            assertNull(page.isDirty());
+            assertEquals(0, page.getNumEmptySlots());
+        }
+    }
+
     @Test public void handleManyDirtyPages() throws Exception {
     	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
 		System.out.println(empty.getFile().length());
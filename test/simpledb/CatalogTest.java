@@ -97,6 +97,26 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.removeTable()
+     */
+    @Test public void removeTable() {
+        Database.getCatalog().removeTable(id1);
+        try {
+            Database.getCatalog().getDatabaseFile(id1);
+            Assert.fail("Should not find dropped table");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+        try {
+            Database.getCatalog().getTableId(nameThisTestRun);
+            Assert.fail("Should not find dropped table by name");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+        assertEquals(id2, Database.getCatalog().getTableId(name));
+    }
+
     /**
      * JUnit suite target
      */
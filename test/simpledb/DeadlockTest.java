@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -171,6 +174,28 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testWriteWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Unit test for deadlock detection.
+   * t1 acquires p0.write; t2 acquires p1.write; t1 attempts p1.write; t2
+   * attempts p0.write. The deadlock is found as soon as t2 waits, and t2,
+   * the younger transaction, is aborted.
+   */
+  @Test public void testYoungestAborted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    lg2.join(POLL_INTERVAL);
+
+    assertNotNull(lg2.getError());
+    lg1.join(POLL_INTERVAL);
+    assertTrue(lg1.acquired());
+    assertNull(lg1.getError());
+    bp.transactionComplete(tid1);
+  }
+
   /**
    * Not-so-unit test to construct a deadlock situation.
    * t1 acquires p0.read; t2 acquires p0.read; t1 attempts to upgrade to
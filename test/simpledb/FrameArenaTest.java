@@ -0,0 +1,144 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for FrameArena.allocate(): frames do not overlap and the
+     * arena hands out no more than its capacity
+     */
+    @Test public void allocateUpToCapacity() {
+        FrameArena arena = new FrameArena(16, FrameArena.CHUNK_FRAMES + 2);
+        List<ByteBuffer> frames = new ArrayList<>();
+        for (int i = 0; i < arena.capacity(); i++) {
+            ByteBuffer frame = arena.allocate();
+            assertNotNull(frame);
+            assertTrue(frame.isDirect());
+            assertEquals(16, frame.capacity());
+            frame.putInt(0, i);
+            frames.add(frame);
+        }
+        assertNull(arena.allocate());
+        assertEquals(arena.capacity(), arena.inUse());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(i, frames.get(i).getInt(0));
+        }
+    }
+
+    /**
+     * Unit test for FrameArena.free(): a freed frame is handed out again,
+     * and freeing a buffer that is not a frame in use fails
+     */
+    @Test public void reusesFreedFrames() {
+        FrameArena arena = new FrameArena(16, 1);
+        ByteBuffer frame = arena.allocate();
+        assertNotNull(frame);
+        assertNull(arena.allocate());
+        assertEquals(1, arena.exhausted());
+        arena.free(frame);
+        assertEquals(0, arena.inUse());
+        ByteBuffer again = arena.allocate();
+        assertNotNull(again);
+        assertEquals(1, arena.inUse());
+        try {
+            arena.free(frame);
+            fail("freed a frame twice");
+        } catch (IllegalArgumentException expected) {
+            // the frame was handed out again as a new buffer
+        }
+        try {
+            arena.free(ByteBuffer.allocateDirect(16));
+            fail("freed a buffer the arena did not allocate");
+        } catch (IllegalArgumentException expected) {
+            // not a frame
+        }
+    }
+
+    /**
+     * A pool that scans a table several times its size keeps its pages in
+     * frames throughout: evicted pages give theirs back, and stay readable
+     * on the heap for whoever still holds them
+     */
+    @Test public void evictionReturnsFrames() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        FrameArena arena = pool.getFrameArena();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20 * rowsPerPage(), null, null);
+        assertTrue(hf.numPages() > 4 * pool.getNumPages());
+
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) pool.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        String firstTuple = first.iterator().next().toString();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < hf.numPages(); i++) {
+                pool.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                assertTrue(arena.inUse() <= pool.getNumPages());
+            }
+        }
+        assertEquals(0, arena.exhausted());
+        assertEquals(0, pool.getMetrics().snapshot().arenaExhausted());
+        assertTrue(pool.getMetrics().snapshot().evictions() > 0);
+        // the first page was evicted long ago, and its holder can still read it
+        assertEquals(firstTuple, first.iterator().next().toString());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A page that leaves the pool when its transaction aborts gives its
+     * frames, including the one of its before image, back to the arena
+     */
+    @Test public void abortReturnsFrames() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        FrameArena arena = pool.getFrameArena();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rowsPerPage(), null, null);
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        pool.transactionComplete(tid);
+        assertEquals(1, arena.inUse());
+
+        // the commit dropped the before image, so the next write copies one
+        tid = new TransactionId();
+        page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        assertEquals(2, arena.inUse());
+        pool.transactionComplete(tid, false);
+        assertEquals(1, arena.inUse());
+        pool.discardPage(pid);
+        assertEquals(0, arena.inUse());
+    }
+
+    private static int rowsPerPage() {
+        return BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
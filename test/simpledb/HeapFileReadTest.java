@@ -125,6 +125,42 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for reading pages through a memory mapped HeapFile
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        int framesInUse = Database.getBufferPool().getFrameArena().inUse();
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertEquals(framesInUse, Database.getBufferPool().getFrameArena().inUse());
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+
+        // the page reads the mapping, but its before image must not follow
+        // the write of the page
+        int emptySlots = page.getNumEmptySlots();
+        page.deleteTuple(page.iterator().next());
+        mapped.writePage(page);
+        assertEquals(emptySlots, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(emptySlots + 1, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+        assertEquals(emptySlots + 1, page.getNumEmptySlots());
+
+        // grow the file; the new page must be visible through the mapping
+        HeapPageId newPid = new HeapPageId(mapped.getId(), 1);
+        HeapPage newPage = new HeapPage(newPid, HeapPage.createEmptyPageData());
+        newPage.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(newPage);
+        assertEquals(2, mapped.numPages());
+        HeapPage reread = (HeapPage) mapped.readPage(newPid);
+        assertEquals(newPage.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertEquals(new IntField(7), reread.iterator().next().getField(0));
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
 //        HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
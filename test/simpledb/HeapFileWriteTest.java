@@ -14,7 +14,9 @@ import simpledb.transaction.TransactionId;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -64,6 +66,37 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() reusing space freed by a delete,
+     * including after the free space map was persisted and reloaded
+     */
+    @Test public void insertReusesFreedSlot() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 0) first = t;
+        }
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, empty.numPages());
+
+        // the page is full again; persist the map and reopen the file
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        empty.close();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        t = Utility.getHeapTuple(8, 2);
+        reopened.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, reopened.numPages());
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -104,6 +137,37 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.writePages() with pages out of order, a gap
+     * between runs, and a run longer than one write
+     */
+    @Test public void writePages() throws Exception {
+        int tableId = empty.getId();
+        int[] pageNos = {300, 2, 0, 1, 3, 9};
+        List<Page> pages = new ArrayList<>();
+        for (int pageNo : pageNos) {
+            HeapPage page = new HeapPage(new HeapPageId(tableId, pageNo), HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pageNo, 2));
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        for (int pageNo = 10; pageNo < 15 + 2 * HeapFile.MAX_WRITE_RUN; pageNo++) {
+            HeapPage page = new HeapPage(new HeapPageId(tableId, pageNo), HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pageNo, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        assertEquals(301, empty.numPages());
+        for (Page page : pages) {
+            assertNull(page.isDirty());
+            HeapPage read = (HeapPage) empty.readPage(page.getId());
+            assertArrayEquals(page.getPageData(), read.getPageData());
+        }
+        HeapPage gap = (HeapPage) empty.readPage(new HeapPageId(tableId, 5));
+        assertEquals(gap.getNumSlots(), gap.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
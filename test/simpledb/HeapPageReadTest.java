@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -59,7 +60,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         // Convert it to a HeapFile and read in the bytes
         try {
             File temp = File.createTempFile("table", ".dat");
-            temp.deleteOnExit();
+            SystemTestUtil.deleteOnExit(temp);
             HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
             EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
         } catch (IOException e) {
@@ -102,6 +103,58 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(int[])
+     */
+    @Test public void testIteratorColumns() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator(new int[] { 1 });
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(1, tup.getTupleDesc().numFields());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+            assertEquals(row, tup.getRecordId().getTupleNumber());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(int[], List)
+     */
+    @Test public void testIteratorPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947)));
+        Iterator<Tuple> it = page.iterator(new int[] { 1 }, predicates);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            if (EXAMPLE_VALUES[row][0] > 30000 && EXAMPLE_VALUES[row][1] <= 44947) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(row, tup.getRecordId().getTupleNumber());
+                assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) page.getField(row, 1)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) page.getField(row, 0)).getValue());
+        }
+        // slots that were never decoded are written back unchanged
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -132,6 +132,25 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.setBeforeImage(): the before image is the
+     * committed content until the next modification, and stays so after it
+     */
+    @Test public void beforeImageAfterCommit() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        page.insertTuple(Utility.getHeapTuple(3, 2));
+        assertEquals(free - 3, page.getNumEmptySlots());
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
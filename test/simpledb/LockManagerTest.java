@@ -0,0 +1,223 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DeadlockException;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.LockType;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import static simpledb.storage.LockType.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 1;
+    private static final int THRESHOLD = 4;
+
+    private LockManager lm;
+    private TransactionId tid1, tid2;
+
+    @Before public void setUp() {
+        lm = new LockManager(LockManager.DEFAULT_STRIPES, THRESHOLD);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(TABLE, pgNo);
+    }
+
+    /**
+     * Unit test for the compatibility and combination of lock modes
+     */
+    @Test public void lockModes() {
+        for (LockType a : LockType.values()) {
+            for (LockType b : LockType.values()) {
+                assertEquals(a.compatibleWith(b), b.compatibleWith(a));
+                LockType c = a.combine(b);
+                assertTrue(c.covers(a) && c.covers(b));
+            }
+        }
+        assertTrue(INTENTION_SHARED_LOCK.compatibleWith(SHARED_INTENTION_EXCLUSIVE_LOCK));
+        assertFalse(INTENTION_EXCLUSIVE_LOCK.compatibleWith(SHARED_LOCK));
+        assertEquals(SHARED_INTENTION_EXCLUSIVE_LOCK, SHARED_LOCK.combine(INTENTION_EXCLUSIVE_LOCK));
+        assertEquals(EXCLUSIVE_LOCK, INTENTION_SHARED_LOCK.combine(EXCLUSIVE_LOCK));
+        assertFalse(SHARED_INTENTION_EXCLUSIVE_LOCK.covers(EXCLUSIVE_LOCK));
+    }
+
+    /**
+     * Page locks take intention locks on their table, which conflict with
+     * table locks of other transactions
+     */
+    @Test public void intentionLocks() throws Exception {
+        assertTrue(lm.acquireLock(tid1, page(0), SHARED_LOCK, 0));
+        assertFalse(lm.acquireTableLock(tid2, TABLE, EXCLUSIVE_LOCK, 0));
+        assertTrue(lm.acquireTableLock(tid2, TABLE, SHARED_LOCK, 0));
+        assertTrue(lm.holdsLock(tid2, page(5)));
+        assertFalse(lm.isLocked(page(5)));
+
+        // tid1 needs IX on the table, which tid2's S lock excludes
+        assertFalse(lm.acquireLock(tid1, page(1), EXCLUSIVE_LOCK, 0));
+        lm.releaseAllLocks(tid2);
+        assertTrue(lm.acquireLock(tid1, page(1), EXCLUSIVE_LOCK, 0));
+        assertFalse(lm.holdsLock(tid2, page(5)));
+        lm.releaseAllLocks(tid1);
+        assertFalse(lm.isLocked(page(0)));
+        assertFalse(lm.isLocked(page(1)));
+    }
+
+    /**
+     * A reader holding THRESHOLD page locks on a table gets a shared table
+     * lock instead, which still lets others read but not write
+     */
+    @Test public void escalateShared() throws Exception {
+        for (int pgNo = 0; pgNo < THRESHOLD; pgNo++) {
+            assertTrue(lm.acquireLock(tid1, page(pgNo), SHARED_LOCK, 0));
+        }
+        for (int pgNo = 0; pgNo < THRESHOLD; pgNo++) {
+            assertFalse(lm.isLocked(page(pgNo)));
+        }
+        assertTrue(lm.holdsLock(tid1, page(THRESHOLD + 10)));
+        assertTrue(lm.acquireLock(tid2, page(0), SHARED_LOCK, 0));
+        assertFalse(lm.acquireLock(tid2, page(THRESHOLD), EXCLUSIVE_LOCK, 0));
+
+        // writing a page of the escalated table needs SIX on it
+        lm.releaseAllLocks(tid2);
+        assertTrue(lm.acquireLock(tid1, page(1), EXCLUSIVE_LOCK, 0));
+        assertTrue(lm.isLocked(page(1)));
+        assertFalse(lm.acquireTableLock(tid2, TABLE, INTENTION_EXCLUSIVE_LOCK, 0));
+        assertTrue(lm.acquireTableLock(tid2, TABLE, INTENTION_SHARED_LOCK, 0));
+    }
+
+    /**
+     * A writer's page locks escalate to an exclusive table lock
+     */
+    @Test public void escalateExclusive() throws Exception {
+        for (int pgNo = 0; pgNo < THRESHOLD; pgNo++) {
+            assertTrue(lm.acquireLock(tid1, page(pgNo), pgNo == 0 ? EXCLUSIVE_LOCK : SHARED_LOCK, 0));
+        }
+        assertFalse(lm.isLocked(page(0)));
+        assertFalse(lm.acquireLock(tid2, page(THRESHOLD + 10), SHARED_LOCK, 0));
+        lm.releaseAllLocks(tid1);
+        assertTrue(lm.acquireLock(tid2, page(THRESHOLD + 10), SHARED_LOCK, 0));
+    }
+
+    /**
+     * Escalation does not wait for other transactions using the table
+     */
+    @Test public void escalationSkippedOnConflict() throws Exception {
+        assertTrue(lm.acquireLock(tid2, page(100), EXCLUSIVE_LOCK, 0));
+        for (int pgNo = 0; pgNo < THRESHOLD; pgNo++) {
+            assertTrue(lm.acquireLock(tid1, page(pgNo), SHARED_LOCK, 0));
+        }
+        for (int pgNo = 0; pgNo < THRESHOLD; pgNo++) {
+            assertTrue(lm.isLocked(page(pgNo)));
+        }
+        assertFalse(lm.holdsLock(tid1, page(THRESHOLD)));
+
+        // the next attempt comes after another THRESHOLD page locks
+        lm.releaseAllLocks(tid2);
+        for (int pgNo = THRESHOLD; pgNo < 2 * THRESHOLD; pgNo++) {
+            assertTrue(lm.acquireLock(tid1, page(pgNo), SHARED_LOCK, 0));
+        }
+        assertFalse(lm.isLocked(page(0)));
+        assertTrue(lm.holdsLock(tid1, page(100)));
+    }
+
+    /**
+     * A transaction that waits in two threads at once, like the workers of
+     * a ParallelSeqScan, is aborted in both of them when it is chosen to
+     * break a deadlock
+     */
+    @Test(timeout = 10000) public void victimWaitingInTwoThreads() throws Exception {
+        assertTrue(lm.acquireLock(tid1, page(0), EXCLUSIVE_LOCK, 0));
+        assertTrue(lm.acquireLock(tid1, page(1), EXCLUSIVE_LOCK, 0));
+        assertTrue(lm.acquireLock(tid2, page(2), EXCLUSIVE_LOCK, 0));
+        Waiter w0 = new Waiter(tid2, page(0));
+        Waiter w1 = new Waiter(tid2, page(1));
+        w0.start();
+        w1.start();
+        Thread.sleep(100);
+
+        // closes the cycle; tid2 is younger
+        Waiter w2 = new Waiter(tid1, page(2));
+        w2.start();
+        w0.join();
+        w1.join();
+        assertTrue(w0.error instanceof DeadlockException);
+        assertTrue(w1.error instanceof DeadlockException);
+        assertTrue(w2.isAlive());
+        lm.releaseAllLocks(tid2);
+        w2.join();
+        assertTrue(w2.acquired);
+    }
+
+    /**
+     * Two threads of a transaction wait for its table in different modes:
+     * the mode recorded for the table is the combination of both, so page
+     * requests it covers need no page lock
+     */
+    @Test(timeout = 10000) public void tableModeCombinesThreads() throws Exception {
+        assertTrue(lm.acquireLock(tid2, page(0), EXCLUSIVE_LOCK, 0));
+        Waiter shared = new Waiter(tid1, SHARED_LOCK);
+        Waiter intention = new Waiter(tid1, INTENTION_EXCLUSIVE_LOCK);
+        shared.start();
+        Thread.sleep(100);
+        intention.start();
+        Thread.sleep(100);
+        lm.releaseAllLocks(tid2);
+        shared.join();
+        intention.join();
+        assertTrue(shared.acquired && intention.acquired);
+
+        // tid1 holds SIX on the table, which covers reading any page
+        assertTrue(lm.acquireLock(tid1, page(5), SHARED_LOCK, 0));
+        assertFalse(lm.isLocked(page(5)));
+        assertFalse(lm.acquireLock(tid2, page(6), EXCLUSIVE_LOCK, 0));
+    }
+
+    /** Waits for an exclusive page lock or a table lock and records the outcome. */
+    private class Waiter extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final LockType tableMode;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Waiter(TransactionId tid, PageId pid) {
+            this.tid = tid;
+            this.pid = pid;
+            this.tableMode = null;
+        }
+
+        Waiter(TransactionId tid, LockType tableMode) {
+            this.tid = tid;
+            this.pid = null;
+            this.tableMode = tableMode;
+        }
+
+        @Override
+        public void run() {
+            try {
+                acquired = pid != null ? lm.acquireLock(tid, pid, EXCLUSIVE_LOCK)
+                        : lm.acquireTableLock(tid, TABLE, tableMode);
+            } catch (DeadlockException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -197,6 +199,70 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A waiting writer is granted the lock as soon as the reader releases
+   * it, and a reader arriving after the writer queues behind it.
+   */
+  @Test public void writerNotStarved() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid1);
+    writer.join(TIMEOUT);
+    assertTrue(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid2);
+    reader.join(TIMEOUT);
+    assertTrue(reader.acquired());
+    bp.transactionComplete(tid3);
+  }
+
+  /**
+   * Unit test for BufferPool.transactionComplete() assuming locking.
+   * Every lock of the transaction is released, and no other.
+   */
+  @Test public void releaseAllLocks() throws Exception {
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    bp.unsafeReleasePage(tid1, p0);
+    assertFalse(bp.holdsLock(tid1, p0));
+
+    bp.transactionComplete(tid1);
+    assertFalse(bp.holdsLock(tid1, p1));
+    assertTrue(bp.holdsLock(tid2, p0));
+    assertTrue(bp.holdsLock(tid2, p2));
+    grabLock(tid1, p1, Permissions.READ_WRITE, true);
+
+    bp.transactionComplete(tid2);
+    assertFalse(bp.holdsLock(tid2, p0));
+    assertFalse(bp.holdsLock(tid2, p2));
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * Evicting a page keeps the locks transactions hold on it.
+   */
+  @Test public void evictionKeepsLocks() throws Exception {
+    bp = Database.resetBufferPool(1);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p0));
+    grabLock(tid2, p0, Permissions.READ_WRITE, false);
+  }
+
   @Test public void myTest() throws Exception{
 
     ArrayList<Integer> l = new ArrayList<>();
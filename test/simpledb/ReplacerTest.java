@@ -0,0 +1,184 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUReplacer;
+import simpledb.storage.PageId;
+import simpledb.storage.Replacer;
+import simpledb.storage.TwoQueueReplacer;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ReplacerTest extends SimpleDbTestBase {
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for LRUReplacer.victim()
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        Replacer replacer = new LRUReplacer();
+        for (int i = 0; i < 4; i++) {
+            replacer.add(page(i));
+        }
+        replacer.recordAccess(page(0));
+        assertEquals(page(1), replacer.victim(pid -> true));
+        assertEquals(page(3), replacer.victim(pid -> !pid.equals(page(2))));
+        assertEquals(2, replacer.size());
+    }
+
+    /**
+     * Unit test for ClockReplacer.victim(): a page that was used since the
+     * hand last passed gets a second chance
+     */
+    @Test public void clockGivesSecondChance() {
+        Replacer replacer = new ClockReplacer(4);
+        for (int i = 0; i < 4; i++) {
+            replacer.add(page(i));
+        }
+        // the first sweep clears every bit and evicts page 0
+        assertEquals(page(0), replacer.victim(pid -> true));
+        replacer.recordAccess(page(1));
+        assertEquals(page(2), replacer.victim(pid -> true));
+        assertEquals(page(3), replacer.victim(pid -> true));
+        assertEquals(page(1), replacer.victim(pid -> true));
+        assertEquals(0, replacer.size());
+        assertNull(replacer.victim(pid -> true));
+    }
+
+    /**
+     * Unit test for ClockReplacer.remove() and reuse of its frames
+     */
+    @Test public void clockReusesFrames() {
+        Replacer replacer = new ClockReplacer(2);
+        replacer.add(page(0));
+        replacer.add(page(1));
+        replacer.remove(page(0));
+        replacer.add(page(2));
+        assertEquals(2, replacer.size());
+        assertNull(replacer.victim(pid -> pid.equals(page(0))));
+        try {
+            replacer.add(page(3));
+            fail("expected the replacer to be full");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Evicts pages from several threads at once; every page must be
+     * returned exactly once.
+     */
+    @Test public void clockConcurrentVictims() throws Exception {
+        final int numPages = 1000;
+        final Replacer replacer = new ClockReplacer(numPages);
+        for (int i = 0; i < numPages; i++) {
+            replacer.add(page(i));
+        }
+        final Set<PageId> evicted = new HashSet<>();
+        final int[] duplicates = new int[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                while (replacer.size() > 0) {
+                    PageId victim = replacer.victim(pid -> true);
+                    if (victim == null) {
+                        continue;
+                    }
+                    replacer.recordAccess(page(victim.getPageNumber() + 1));
+                    synchronized (evicted) {
+                        if (!evicted.add(victim)) {
+                            duplicates[0]++;
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, duplicates[0]);
+        assertEquals(numPages, evicted.size());
+        assertEquals(0, replacer.size());
+    }
+
+    /**
+     * Requests pid from a simulated pool of capacity pages that evicts with
+     * replacer.
+     *
+     * @return true on a hit
+     */
+    private static boolean access(Replacer replacer, Set<PageId> cached, int capacity, PageId pid) {
+        if (cached.contains(pid)) {
+            replacer.recordAccess(pid);
+            return true;
+        }
+        if (cached.size() == capacity) {
+            cached.remove(replacer.victim(p -> true));
+        }
+        replacer.add(pid);
+        cached.add(pid);
+        return false;
+    }
+
+    /**
+     * Runs a scan over many pages that reads a hot page after every ten scan
+     * pages, and returns the number of misses on the hot page.
+     */
+    private static int hotPageMisses(Replacer replacer, int capacity) {
+        Set<PageId> cached = new HashSet<>();
+        PageId hot = new HeapPageId(2, 0);
+        int misses = 0;
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 == 0 && !access(replacer, cached, capacity, hot)) {
+                misses++;
+            }
+            access(replacer, cached, capacity, page(i));
+        }
+        return misses;
+    }
+
+    /**
+     * Unit test for TwoQueueReplacer: a page that is reused across a scan
+     * larger than the pool stays cached, where LRU loses it every time
+     */
+    @Test public void twoQueueResistsScans() {
+        assertEquals(20, hotPageMisses(new LRUReplacer(), 8));
+        assertEquals(2, hotPageMisses(new TwoQueueReplacer(8, 2, 16), 8));
+    }
+
+    /**
+     * Unit test for TwoQueueReplacer.victim() skipping pages that are not
+     * evictable
+     */
+    @Test public void twoQueueVictimSkipsPinnedPages() {
+        Replacer replacer = new TwoQueueReplacer(4);
+        replacer.add(page(0));
+        replacer.add(page(1));
+        assertEquals(page(1), replacer.victim(pid -> !pid.equals(page(0))));
+        assertNull(replacer.victim(pid -> !pid.equals(page(0))));
+        replacer.remove(page(0));
+        assertEquals(0, replacer.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacerTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Scans a heap file and a B+ tree read-only with a cold cache, and reports
+ * the bytes the scanning thread allocates per page read. Pages capture their
+ * before image only when they are first modified, so a read-only scan should
+ * allocate no copies of the page data besides the ones it decodes.
+ * <p>
+ * Usage: BeforeImageBenchmark [tablePages] [scans]
+ */
+public class BeforeImageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        int rowsPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, tablePages * rowsPerPage, null, null);
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, tablePages * rowsPerPage, null, null, 0);
+
+        // warm up the JIT
+        run(heap, 1);
+        run(btree, 1);
+
+        report("heap", heap.numPages(), run(heap, scans), scans);
+        report("btree", btree.numPages(), run(btree, scans), scans);
+    }
+
+    private static void report(String file, int pages, long allocated, int scans) {
+        System.out.printf("%-6s %d pages, %.1f KB allocated per page read%n",
+                file, pages, allocated / 1024.0 / pages / scans);
+    }
+
+    /**
+     * Scans f the given number of times, each time through a fresh BufferPool.
+     *
+     * @return the bytes allocated while scanning
+     */
+    private static long run(DbFile f, int scans) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = 0;
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            for (int i = 0; i < scans; i++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                TransactionId tid = new TransactionId();
+                long before = threads.getThreadAllocatedBytes(thread);
+                DbFileIterator it = f.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                }
+                it.close();
+                allocated += threads.getThreadAllocatedBytes(thread) - before;
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return allocated;
+    }
+}
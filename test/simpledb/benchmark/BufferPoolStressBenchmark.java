@@ -0,0 +1,122 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUReplacer;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers BufferPool.getPage from several threads at once and compares the
+ * throughput of the replacement policies and of an unsharded pool against
+ * one split into a shard per thread. Every thread runs read-only
+ * transactions of {@link #PAGES_PER_TRANSACTION} page requests, 80% of which
+ * go to the first 20% of the table, so the run mixes hits and evictions.
+ * <p>
+ * Besides throughput the benchmark counts pages that came back with the
+ * wrong id, which would mean the pool's bookkeeping got corrupted.
+ * <p>
+ * Usage: BufferPoolStressBenchmark [threads] [tablePages] [poolPages] [millis]
+ */
+public class BufferPoolStressBenchmark {
+
+    private static final int PAGES_PER_TRANSACTION = 20;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int tablePages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        long millis = args.length > 3 ? Long.parseLong(args[3]) : 5000;
+
+        int rowsPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, tablePages * rowsPerPage, null, null);
+        System.out.println("table: " + hf.numPages() + " pages, pool: " + poolPages + " pages, "
+                + threads + " threads");
+
+        // warm up the JIT with both policies
+        run(hf, new BufferPool(poolPages, new LRUReplacer()), threads, millis / 5);
+        run(hf, new BufferPool(poolPages, new ClockReplacer(poolPages)), threads, millis / 5);
+
+        report("LRU", run(hf, new BufferPool(poolPages, new LRUReplacer()), threads, millis), millis);
+        report("CLOCK", run(hf, new BufferPool(poolPages, new ClockReplacer(poolPages)), threads, millis), millis);
+        int shards = Math.min(threads, poolPages);
+        report("CLOCK/" + shards,
+                run(hf, new BufferPool(poolPages, shards, ClockReplacer::new), threads, millis), millis);
+    }
+
+    private static void report(String policy, long[] result, long millis) {
+        System.out.printf("%-8s %.1f Kpages/s, %d wrong pages%n", policy, result[0] / (double) millis, result[1]);
+    }
+
+    /**
+     * Runs the workload for the given time against pool.
+     *
+     * @return the number of pages fetched and the number of wrong pages
+     */
+    private static long[] run(HeapFile hf, BufferPool pool, int threads, long millis)
+            throws InterruptedException {
+        Database.resetBufferPool(pool);
+        final int numPages = hf.numPages();
+        final int hotPages = Math.max(1, numPages / 5);
+        final long deadline = System.currentTimeMillis() + millis;
+        final AtomicLong fetched = new AtomicLong();
+        final AtomicLong wrong = new AtomicLong();
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final Random random = new Random(i);
+                Thread worker = new Thread(() -> {
+                    long count = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int j = 0; j < PAGES_PER_TRANSACTION; j++) {
+                                int pgNo = random.nextInt(10) < 8
+                                        ? random.nextInt(hotPages) : random.nextInt(numPages);
+                                HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+                                Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                                if (page == null || !page.getId().equals(pid)) {
+                                    wrong.incrementAndGet();
+                                }
+                                count++;
+                            }
+                        } catch (Exception e) {
+                            // a lock timeout; the transaction just ends early
+                        } finally {
+                            Database.getBufferPool().transactionComplete(tid);
+                        }
+                    }
+                    fetched.addAndGet(count);
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return new long[]{fetched.get(), wrong.get()};
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures transaction throughput under the lock pattern of DeadlockTest:
+ * every transaction reads two pages out of a few hot ones and then writes
+ * both, so two transactions that read the same pages deadlock when they
+ * upgrade. Aborted transactions are retried with a new id, like the
+ * test's writers.
+ * <p>
+ * Usage: DeadlockBenchmark [threads] [hotPages] [millis]
+ */
+public class DeadlockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+
+        int rowsPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, hotPages * rowsPerPage, null, null);
+        System.out.println("hot pages: " + hf.numPages() + ", " + threads + " threads");
+
+        // warm up the JIT
+        run(hf, threads, millis / 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long[] result = run(hf, threads, millis);
+        System.out.printf("%.1f commits/s, %d aborts, %.2f ms average commit latency%n",
+                result[0] * 1000.0 / millis, result[1], result[2] / 1e6 / Math.max(1, result[0]));
+        System.out.println(Database.getBufferPoolMetrics().snapshot());
+    }
+
+    /**
+     * Runs the workload for the given time.
+     *
+     * @return the number of commits, the number of aborts, and the total
+     *   nanoseconds from a transaction's first attempt to its commit
+     */
+    private static long[] run(HeapFile hf, int threads, long millis) throws InterruptedException {
+        final int numPages = hf.numPages();
+        final long deadline = System.currentTimeMillis() + millis;
+        final AtomicLong commits = new AtomicLong();
+        final AtomicLong aborts = new AtomicLong();
+        final AtomicLong latency = new AtomicLong();
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final Random random = new Random(i);
+                Thread worker = new Thread(() -> {
+                    while (System.currentTimeMillis() < deadline) {
+                        int first = random.nextInt(numPages);
+                        int second = (first + 1 + random.nextInt(numPages - 1)) % numPages;
+                        long start = System.nanoTime();
+                        while (System.currentTimeMillis() < deadline) {
+                            TransactionId tid = new TransactionId();
+                            HeapPageId p0 = new HeapPageId(hf.getId(), first);
+                            HeapPageId p1 = new HeapPageId(hf.getId(), second);
+                            try {
+                                Database.getBufferPool().getPage(tid, p0, Permissions.READ_ONLY);
+                                Database.getBufferPool().getPage(tid, p1, Permissions.READ_ONLY);
+                                Database.getBufferPool().getPage(tid, p0, Permissions.READ_WRITE);
+                                Database.getBufferPool().getPage(tid, p1, Permissions.READ_WRITE);
+                                Database.getBufferPool().transactionComplete(tid, true);
+                                commits.incrementAndGet();
+                                latency.addAndGet(System.nanoTime() - start);
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                Database.getBufferPool().transactionComplete(tid, false);
+                                aborts.incrementAndGet();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return new long[]{commits.get(), aborts.get(), latency.get()};
+    }
+}
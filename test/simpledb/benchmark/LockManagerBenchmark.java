@@ -0,0 +1,108 @@
+package simpledb.benchmark;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.LockType;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures LockManager acquire/release throughput from 1 to 64 threads, with
+ * the lock table in a single stripe, which serializes all lock traffic like
+ * a globally synchronized manager, and in {@link LockManager#DEFAULT_STRIPES}
+ * stripes. Every transaction locks {@link #LOCKS_PER_TRANSACTION} random
+ * pages out of many, a fifth of them exclusively, and then releases all of
+ * them, so conflicts are rare and the manager's own latching dominates.
+ * <p>
+ * It then times the locks of a full scan: one transaction locking every
+ * page of the table, with and without lock escalation.
+ * <p>
+ * Usage: LockManagerBenchmark [pages] [millis]
+ */
+public class LockManagerBenchmark {
+
+    private static final int LOCKS_PER_TRANSACTION = 4;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+        // warm up the JIT
+        run(new LockManager(), 8, pages, millis);
+
+        System.out.printf("%-8s %12s %12s%n", "threads", "1 stripe", LockManager.DEFAULT_STRIPES + " stripes");
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            double global = run(new LockManager(1), threads, pages, millis);
+            double striped = run(new LockManager(), threads, pages, millis);
+            System.out.printf("%-8d %9.0f K/s %9.0f K/s%n", threads, global, striped);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            scan(new LockManager(LockManager.DEFAULT_STRIPES, Integer.MAX_VALUE), pages);
+            scan(new LockManager(), pages);
+        }
+        System.out.printf("scan of %d pages: %.2f ms without escalation, %.2f ms with escalation%n", pages,
+                scan(new LockManager(LockManager.DEFAULT_STRIPES, Integer.MAX_VALUE), pages) / 1e6,
+                scan(new LockManager(), pages) / 1e6);
+    }
+
+    /**
+     * Locks every page of a table for one transaction and releases them.
+     *
+     * @return the time taken in nanoseconds
+     */
+    private static long scan(LockManager lockManager, int pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        for (int pgNo = 0; pgNo < pages; pgNo++) {
+            lockManager.acquireLock(tid, new HeapPageId(0, pgNo), LockType.SHARED_LOCK);
+        }
+        lockManager.releaseAllLocks(tid);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the workload for the given time.
+     *
+     * @return thousands of locks acquired and released per second
+     */
+    private static double run(LockManager lockManager, int threads, int pages, long millis)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + millis;
+        final AtomicLong locks = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final Random random = new Random(i);
+            Thread worker = new Thread(() -> {
+                long count = 0;
+                while (System.currentTimeMillis() < deadline) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int j = 0; j < LOCKS_PER_TRANSACTION; j++) {
+                            HeapPageId pid = new HeapPageId(random.nextInt(4), random.nextInt(pages / 4));
+                            LockType type = random.nextInt(5) == 0 ? LockType.EXCLUSIVE_LOCK : LockType.SHARED_LOCK;
+                            if (lockManager.acquireLock(tid, pid, type)) {
+                                count++;
+                            }
+                        }
+                    } catch (Exception e) {
+                        // a deadlock; the transaction just ends early
+                    } finally {
+                        lockManager.releaseAllLocks(tid);
+                    }
+                }
+                locks.addAndGet(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return locks.get() / (double) millis;
+    }
+}
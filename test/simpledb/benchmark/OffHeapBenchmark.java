@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FrameArena;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Caches a table in the BufferPool with page bytes on and off the Java heap,
+ * and compares the heap the cached pages retain and the time the garbage
+ * collector spends while the table is scanned repeatedly. A last run scans
+ * the table through a pool a quarter its size, so that evicted pages must
+ * give their frames back for the pages that replace them.
+ * <p>
+ * Usage: OffHeapBenchmark [tablePages] [scans]
+ */
+public class OffHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        int rowsPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, tablePages * rowsPerPage, null, null);
+        System.out.println("table: " + hf.numPages() + " pages");
+
+        // twice the table, so that every page stays cached
+        run("heap", false, 2 * hf.numPages(), hf, scans);
+        run("off-heap", true, 2 * hf.numPages(), hf, scans);
+        run("churn", true, hf.numPages() / 4, hf, scans);
+        BufferPool.setOffHeap(true);
+    }
+
+    private static void run(String mode, boolean offHeap, int poolPages, HeapFile hf, int scans)
+            throws Exception {
+        BufferPool.setOffHeap(offHeap);
+        Database.resetBufferPool(new BufferPool(poolPages));
+        long baseline = usedHeap();
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long gcMillis = gcMillis();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < scans; i++) {
+                TransactionId tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, hf.getId());
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                }
+                scan.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        long elapsed = System.nanoTime() - start;
+        gcMillis = gcMillis() - gcMillis;
+        FrameArena arena = Database.getBufferPool().getFrameArena();
+        System.out.printf("%-8s pool of %d pages: %.1f MB retained on heap, %d ms in GC, %.0f ms per scan, "
+                        + "%d frames in use, arena exhausted %d times%n",
+                mode, poolPages, (usedHeap() - baseline) / 1e6, gcMillis, elapsed / 1e6 / scans,
+                arena.inUse(), arena.exhausted());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageCleaner;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes every tuple of a table several times the size of a STEAL
+ * BufferPool in one transaction, with and without a {@link PageCleaner}, and
+ * compares how long the deletes take. Without the cleaner, every miss once
+ * the pool is full has to log and write a dirty page first.
+ * <p>
+ * Usage: PageCleanerBenchmark [tablePages] [poolPages] [pagesPerSecond]
+ */
+public class PageCleanerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int pagesPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : PageCleaner.DEFAULT_PAGES_PER_SECOND;
+
+        int rowsPerPage = BufferPool.getPageSize() * 8 / (2 * 4 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, tablePages * rowsPerPage, null, null);
+        System.out.println("table: " + hf.numPages() + " pages, pool: " + poolPages + " pages");
+
+        BufferPool.setSteal(true);
+        try {
+            // warm up the JIT
+            run(hf, poolPages, 0);
+            run(hf, poolPages, pagesPerSecond);
+
+            run(hf, poolPages, 0);
+            run(hf, poolPages, pagesPerSecond);
+        } finally {
+            BufferPool.setSteal(false);
+        }
+    }
+
+    /**
+     * Deletes every tuple of hf and aborts, so that the next run starts from
+     * the same table.
+     *
+     * @param pagesPerSecond the cleaner's rate, or 0 to run without one
+     */
+    private static void run(HeapFile hf, int poolPages, int pagesPerSecond) throws Exception {
+        BufferPool pool = Database.resetBufferPool(poolPages);
+        PageCleaner cleaner = pagesPerSecond > 0 ? new PageCleaner(pool, pagesPerSecond).start() : null;
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long elapsed;
+        try {
+            Transaction t = new Transaction();
+            t.start();
+            List<Tuple> tuples = new ArrayList<>();
+            SeqScan scan = new SeqScan(t.getId(), hf.getId());
+            scan.open();
+            while (scan.hasNext()) {
+                tuples.add(scan.next());
+            }
+            scan.close();
+
+            long start = System.nanoTime();
+            for (Tuple tuple : tuples) {
+                pool.deleteTuple(t.getId(), tuple);
+            }
+            elapsed = System.nanoTime() - start;
+            t.transactionComplete(true);
+        } finally {
+            System.setOut(out);
+            if (cleaner != null) {
+                cleaner.shutdown();
+            }
+        }
+        System.out.printf("%-18s %.0f ms deleting, %d pages written by the cleaner%n",
+                cleaner == null ? "no cleaner" : "cleaner " + pagesPerSecond + "/s",
+                elapsed / 1e6, cleaner == null ? 0 : cleaner.getPagesWritten());
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.ReadAheadPrefetcher;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Compares cold full-scan throughput of a SeqScan with and without
+ * sequential read-ahead. "Cold" means the BufferPool is reset before every
+ * scan; the operating system's page cache is not dropped, so on a machine
+ * with enough memory this measures the cost of the read path rather than of
+ * the disk itself.
+ * <p>
+ * Usage: ReadAheadBenchmark [rows] [window] [runs]
+ */
+public class ReadAheadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : ReadAheadPrefetcher.DEFAULT_WINDOW;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, rows, null, null);
+        System.out.println("table: " + rows + " rows, " + hf.numPages() + " pages");
+
+        // warm up the JIT with both settings
+        scan(hf, 0);
+        scan(hf, window);
+
+        for (int run = 0; run < runs; run++) {
+            long off = scan(hf, 0);
+            long on = scan(hf, window);
+            System.out.printf("run %d: no read-ahead %.1f Ktuples/s, read-ahead(%d) %.1f Ktuples/s%n",
+                    run, rows / (off / 1e6), window, rows / (on / 1e6));
+        }
+    }
+
+    /**
+     * Runs one cold full scan of hf and returns its duration in nanoseconds.
+     */
+    private static long scan(HeapFile hf, int window) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ReadAheadPrefetcher.setWindow(window);
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId());
+            long start = System.nanoTime();
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+            long elapsed = System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+            return elapsed;
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.LRUReplacer;
+import simpledb.storage.PageId;
+import simpledb.storage.Replacer;
+import simpledb.storage.TwoQueueReplacer;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Runs B+ tree point lookups while other threads repeatedly scan a HeapFile
+ * that is larger than the BufferPool, and compares how well each
+ * replacement policy keeps the B+ tree's internal pages cached. The
+ * benchmark counts the internal pages that had to be read from disk, i.e.
+ * that were added to the pool, and the lookup throughput.
+ * <p>
+ * Usage: ScanResistanceBenchmark [lookups] [scanThreads] [poolPages]
+ */
+public class ScanResistanceBenchmark {
+
+    /** Counts the internal B+ tree pages that enter the pool. */
+    private static class CountingReplacer implements Replacer {
+        private final Replacer replacer;
+        final AtomicLong internalMisses = new AtomicLong();
+
+        CountingReplacer(Replacer replacer) {
+            this.replacer = replacer;
+        }
+
+        public void add(PageId pid) {
+            if (pid instanceof BTreePageId && ((BTreePageId) pid).pgcateg() == BTreePageId.INTERNAL) {
+                internalMisses.incrementAndGet();
+            }
+            replacer.add(pid);
+        }
+
+        public void recordAccess(PageId pid) {
+            replacer.recordAccess(pid);
+        }
+
+        public void remove(PageId pid) {
+            replacer.remove(pid);
+        }
+
+        public PageId victim(java.util.function.Predicate<PageId> evictable) {
+            return replacer.victim(evictable);
+        }
+
+        public int size() {
+            return replacer.size();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int scanThreads = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 200000, null, null, 0);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, 500000, null, null);
+        System.out.println("index: " + index.numPages() + " pages, table: " + table.numPages()
+                + " pages, pool: " + poolPages + " pages");
+
+        run("LRU", n -> new LRUReplacer(), index, table, lookups, scanThreads, poolPages);
+        run("CLOCK", ClockReplacer::new, index, table, lookups, scanThreads, poolPages);
+        run("2Q", TwoQueueReplacer::new, index, table, lookups, scanThreads, poolPages);
+    }
+
+    private static void run(String policy, IntFunction<Replacer> replacers, BTreeFile index, HeapFile table,
+                            int lookups, int scanThreads, int poolPages) throws Exception {
+        CountingReplacer replacer = new CountingReplacer(replacers.apply(poolPages));
+        Database.resetBufferPool(new BufferPool(poolPages, replacer));
+        AtomicBoolean done = new AtomicBoolean();
+
+        // BufferPool logs every lock grant; keep that out of the measurement
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long elapsed;
+        try {
+            List<Thread> scanners = new ArrayList<>();
+            for (int i = 0; i < scanThreads; i++) {
+                Thread scanner = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            TransactionId tid = new TransactionId();
+                            SeqScan scan = new SeqScan(tid, table.getId());
+                            scan.open();
+                            while (!done.get() && scan.hasNext()) {
+                                scan.next();
+                            }
+                            scan.close();
+                            Database.getBufferPool().transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                scanners.add(scanner);
+                scanner.start();
+            }
+
+            Random random = new Random(0);
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                TransactionId tid = new TransactionId();
+                IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS,
+                        new IntField(random.nextInt(BTreeUtility.MAX_RAND_VALUE)));
+                BTreeScan scan = new BTreeScan(tid, index.getId(), "index", ipred);
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                }
+                scan.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            elapsed = System.nanoTime() - start;
+
+            done.set(true);
+            for (Thread scanner : scanners) {
+                scanner.join();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        System.out.printf("%-6s %.0f lookups/s, %d internal page misses%n",
+                policy, lookups / (elapsed / 1e9), replacer.internalMisses.get());
+    }
+}
@@ -3,7 +3,9 @@ package simpledb.systemtest;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -90,6 +92,104 @@ public class AbortEvictionTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    private static int countTuples(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        int count = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        return count;
+    }
+
+    /** Deletes every tuple of f in t, in two passes, so that in a small
+     * STEAL pool every page is stolen, read back and stolen again.
+     */
+    private static void deleteAll(HeapFile f, Transaction t)
+            throws IOException, DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        ss.open();
+        while (ss.hasNext()) {
+            tuples.add(ss.next());
+        }
+        ss.close();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = pass; i < tuples.size(); i += 2) {
+                Database.getBufferPool().deleteTuple(t.getId(), tuples.get(i));
+            }
+        }
+    }
+
+    /** Deletes every tuple of a table ten times the size of the pool in one
+     * transaction. Without STEAL this runs out of clean pages; with it the
+     * dirty pages are written early, and an abort must still undo them.
+     */
+    @Test public void testStealDirtyPages()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504*20, null, null);
+        BufferPool.setSteal(true);
+        try {
+            Database.resetBufferPool(2);
+            assertTrue(Database.getBufferPool().isSteal());
+
+            for (boolean abort : new boolean[]{true, false}) {
+                Transaction t = new Transaction();
+                t.start();
+                assertEquals(504*20, countTuples(f, t));
+                deleteAll(f, t);
+                assertEquals(0, countTuples(f, t));
+                t.transactionComplete(abort);
+
+                t = new Transaction();
+                t.start();
+                assertEquals(abort ? 504*20 : 0, countTuples(f, t));
+                t.commit();
+            }
+        } finally {
+            BufferPool.setSteal(false);
+        }
+    }
+
+    /** Same as testStealDirtyPages, with a PageCleaner writing the dirty
+     * pages in the background.
+     */
+    @Test public void testPageCleaner()
+            throws IOException, DbException, TransactionAbortedException, InterruptedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504*20, null, null);
+        BufferPool.setSteal(true);
+        try {
+            PageCleaner cleaner = new PageCleaner(Database.resetBufferPool(8)).start();
+            try {
+                for (boolean abort : new boolean[]{true, false}) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    deleteAll(f, t);
+                    // the pool is now full of dirty pages, so the cleaner has work
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (cleaner.getPagesWritten() == 0 && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(PageCleaner.INTERVAL_MILLIS);
+                    }
+                    assertTrue(cleaner.getPagesWritten() > 0);
+                    assertEquals(0, countTuples(f, t));
+                    t.transactionComplete(abort);
+
+                    t = new Transaction();
+                    t.start();
+                    assertEquals(abort ? 504*20 : 0, countTuples(f, t));
+                    t.commit();
+                }
+            } finally {
+                cleaner.shutdown();
+            }
+        } finally {
+            BufferPool.setSteal(false);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AbortEvictionTest.class);
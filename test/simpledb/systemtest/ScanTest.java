@@ -2,7 +2,10 @@ package simpledb.systemtest;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 
@@ -11,9 +14,13 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -75,25 +82,346 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
-    /** Verifies that the buffer pool is actually caching data.
-     * @throws TransactionAbortedException
-     * @throws DbException */
-    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /* Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
+    /** Test that a SeqScan over some columns returns just those columns. */
+    @Test public void testProjectedScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table", new int[]{2, 0});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("table." + f.getTupleDesc().getFieldName(2), scan.getTupleDesc().getFieldName(0));
+
+        scan.open();
+        for (List<Integer> tuple : tuples) {
+            assertTrue(scan.hasNext());
+            List<Integer> projected = new ArrayList<>();
+            projected.add(tuple.get(2));
+            projected.add(tuple.get(0));
+            assertEquals(projected, SystemTestUtil.tupleToList(scan.next()));
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that a SeqScan with predicates only returns the matching tuples. */
+    @Test public void testPredicateScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 100, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)));
+        predicates.add(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20)));
+        SeqScan scan = new SeqScan(tid, f.getId(), "table", new int[]{1}, predicates);
+
+        scan.open();
+        for (List<Integer> tuple : tuples) {
+            if (tuple.get(0) < 50 && tuple.get(2) >= 20) {
+                assertTrue(scan.hasNext());
+                assertEquals(tuple.subList(1, 2), SystemTestUtil.tupleToList(scan.next()));
             }
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 50000, 1000, null, tuples);
+        assertTrue(f.numPages() > 2 * ParallelSeqScan.MORSEL_PAGES);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> tuple : tuples) {
+            if (tuple.get(1) < 500) {
+                expected.add(Arrays.asList(tuple.get(2), tuple.get(0)));
+            }
+        }
+        // a parallel scan returns the tuples in no particular order
+        Comparator<List<Integer>> order = Comparator.<List<Integer>>comparingInt(l -> l.get(0))
+                .thenComparingInt(l -> l.get(1));
+        expected.sort(order);
+
+        int parallelism = ParallelSeqScan.getParallelism();
+        ParallelSeqScan.setParallelism(3);
+        TransactionId tid = new TransactionId();
+        try {
+            List<Predicate> predicates = Collections.singletonList(
+                    new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)));
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "table", new int[]{2, 0}, predicates);
+            scan.open();
+            for (int pass = 0; pass < 2; pass++) {
+                List<List<Integer>> actual = new ArrayList<>();
+                while (scan.hasNext()) {
+                    actual.add(SystemTestUtil.tupleToList(scan.next()));
+                }
+                actual.sort(order);
+                assertEquals(expected, actual);
+                scan.rewind();
+            }
+            scan.close();
+        } finally {
+            ParallelSeqScan.setParallelism(parallelism);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Verifies that a scan whose queue is full does not keep another scan from running on the shared pool. */
+    @Test(timeout = 20000) public void testParallelScansShareOnePool() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 50000, 1000, null, null);
+        int parallelism = ParallelSeqScan.getParallelism();
+        ParallelSeqScan.setParallelism(1);
+        TransactionId tid = new TransactionId();
+        try {
+            ParallelSeqScan outer = new ParallelSeqScan(tid, f.getId(), "outer");
+            ParallelSeqScan inner = new ParallelSeqScan(tid, f.getId(), "inner");
+            outer.open();
+            // the outer worker fills its queue before the inner scan starts
+            Thread.sleep(200);
+            inner.open();
+            int count = 0;
+            while (inner.hasNext()) {
+                inner.next();
+                count++;
+            }
+            assertEquals(50000, count);
+            while (outer.hasNext()) {
+                outer.next();
+                count--;
+            }
+            assertEquals(0, count);
+            inner.close();
+            outer.close();
+        } finally {
+            ParallelSeqScan.setParallelism(parallelism);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Verifies that closing a parallel scan stops a worker that waits for a page lock. */
+    @Test(timeout = 20000) public void testParallelScanCloseWhileBlocked() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 50000, 1000, null, null);
+        TransactionId writer = new TransactionId();
+        TransactionId tid = new TransactionId();
+        try {
+            Database.getBufferPool().getPage(writer, new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "table");
+            scan.open();
+            // let the worker of the first morsel reach the lock
+            Thread.sleep(200);
+            scan.close();
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+            Database.getBufferPool().transactionComplete(writer);
+        }
+    }
+
+    /**
+     * A worker of a ParallelSeqScan deadlocks with a writer while another
+     * worker of the same transaction waits for an unrelated lock it asked
+     * for later. The deadlock is still found and the scan aborted.
+     */
+    @Test(timeout = 20000) public void testParallelScanDeadlocksWithWriter() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 50000, 1000, null, null);
+        BufferPool bp = Database.getBufferPool();
+        int parallelism = ParallelSeqScan.getParallelism();
+        ParallelSeqScan.setParallelism(2);
+        TransactionId writer = new TransactionId();
+        TransactionId other = new TransactionId();
+        TransactionId tid = new TransactionId();
+        try {
+            bp.getPage(writer, new HeapPageId(f.getId(), 1), Permissions.READ_WRITE);
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "table");
+            scan.open();
+            // the first worker reads page 0 and waits for the writer, the
+            // second fills the queue from its morsel and stalls
+            Thread.sleep(200);
+            bp.getPage(other, new HeapPageId(f.getId(), 2 * ParallelSeqScan.MORSEL_PAGES - 1),
+                    Permissions.READ_WRITE);
+            AtomicReference<Exception> scanError = new AtomicReference<>();
+            Thread consumer = new Thread(() -> {
+                try {
+                    while (scan.hasNext()) {
+                        scan.next();
+                    }
+                } catch (Exception e) {
+                    scanError.set(e);
+                }
+            });
+            consumer.start();
+            // the second worker reaches the end of its morsel and waits too
+            Thread.sleep(200);
+
+            // closes the cycle; the scan is younger
+            AtomicReference<Exception> writeError = new AtomicReference<>();
+            Thread write = new Thread(() -> {
+                try {
+                    bp.getPage(writer, new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+                } catch (Exception e) {
+                    writeError.set(e);
+                }
+            });
+            write.start();
+            consumer.join();
+            assertTrue(scanError.get() instanceof TransactionAbortedException);
+            scan.close();
+            bp.transactionComplete(tid, false);
+            write.join();
+            assertNull(writeError.get());
+        } finally {
+            ParallelSeqScan.setParallelism(parallelism);
+            bp.transactionComplete(writer);
+            bp.transactionComplete(other);
+        }
+    }
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    /** Scans table with a single predicate and returns the number of tuples found. */
+    private int countMatches(HeapFile table, Predicate predicate)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "table", null, Collections.singletonList(predicate));
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
 
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
-                return super.readPage(pid);
+    /** Verifies that a scan with a range predicate skips pages by their min/max summary. */
+    @Test public void testZoneMapSkipsPages() throws IOException, DbException, TransactionAbortedException {
+        // 20 pages of 2 columns, the first one in ascending order
+        final int PAGES = 20;
+        final int ROWS = 504 * PAGES;
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(Arrays.asList(i, r.nextInt()));
+        }
+        File f = File.createTempFile("table", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        TupleDesc td = Utility.getTupleDesc(2);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        // count only the pages the scans read themselves
+        int window = ReadAheadPrefetcher.getWindow();
+        ReadAheadPrefetcher.setWindow(0);
+        try {
+            // pages never read have no summary yet
+            assertEquals(100, countMatches(table, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100))));
+            assertEquals(PAGES, table.readCount);
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            table.readCount = 0;
+            assertEquals(100, countMatches(table, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100))));
+            assertEquals(1, table.readCount);
+            table.readCount = 0;
+            assertEquals(1, countMatches(table, new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS - 1))));
+            assertEquals(1, table.readCount);
+            table.readCount = 0;
+            assertEquals(0, countMatches(table, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS))));
+            assertEquals(0, table.readCount);
+
+            // the summaries survive closing and reopening the table
+            table.close();
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            InstrumentedHeapFile reopened = new InstrumentedHeapFile(f, td);
+            Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+            assertEquals(ROWS - 504 * 3,
+                    countMatches(reopened, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(504 * 3))));
+            assertEquals(PAGES - 3, reopened.readCount);
+        } finally {
+            ReadAheadPrefetcher.setWindow(window);
+        }
+    }
+
+    /** Verifies that a scan of a table larger than the pool recycles a ring instead of evicting cached pages. */
+    @Test public void testScanRingKeepsCache() throws IOException, DbException, TransactionAbortedException {
+        final int HOT_PAGES = 10;
+        List<List<Integer>> tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * HOT_PAGES, 1000, null, tuples);
+        InstrumentedHeapFile hot = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992 * 4 * BufferPool.DEFAULT_PAGES, 1000, null, null);
+        TransactionId probe = new TransactionId();
+        assertNotNull(Database.getBufferPool().scanRing(probe, big.numPages()));
+        assertNull(Database.getBufferPool().scanRing(probe, HOT_PAGES));
+        Database.getBufferPool().transactionComplete(probe);
+
+        SystemTestUtil.matchTuples(hot, tuples);
+        assertEquals(HOT_PAGES, hot.readCount);
+        hot.readCount = 0;
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "big");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.matchTuples(hot, tuples);
+        assertEquals(0, hot.readCount);
+    }
+
+    /** Verifies that scans aborted without being closed do not keep their ring pages cached. */
+    @Test public void testAbortedScanReleasesRing() throws Exception {
+        final int POOL_PAGES = 16;
+        final int TABLE_PAGES = 20;
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        // a table per scan, since a page read again would be adopted by the pool
+        for (int i = 0; i < 10; i++) {
+            HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992 * TABLE_PAGES, 1000, null, null);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, big.getId(), "big");
+            scan.open();
+            // far enough to fill the ring, then abort without closing the scan
+            for (int n = 0; n < 992 * TABLE_PAGES / 2; n++) {
+                scan.next();
             }
+            pool.transactionComplete(tid, false);
+        }
 
-            public int readCount = 0;
+        // the pool only holds clean pages, so a scan evicts as it goes
+        HeapFile small = SystemTestUtil.createRandomHeapFile(1, 992 * POOL_PAGES / 2, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, small.getId(), "small");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
         }
+        scan.close();
+        pool.transactionComplete(tid);
+        assertEquals(992 * POOL_PAGES / 2, count);
+    }
 
+    /** Verifies that the buffer pool is actually caching data.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
         // Create the table
         final int PAGES = 30;
         List<List<Integer>> tuples = new ArrayList<>();
@@ -112,6 +440,46 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a sharded buffer pool caches pages and serves concurrent scans that evict them. */
+    @Test public void testShardedCache() throws Exception {
+        final int SHARDS = 4;
+        final int PAGES = 30;
+        Database.resetBufferPool(new BufferPool(48, SHARDS, ClockReplacer::new));
+        assertEquals(SHARDS, Database.getBufferPool().getNumShards());
+
+        List<List<Integer>> tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+        table.readCount = 0;
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, table.readCount);
+
+        // scans of a table larger than the pool evict pages in every shard
+        List<List<Integer>> bigTuples = new ArrayList<>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 3 * PAGES, 1000, null, bigTuples);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < SHARDS; i++) {
+            final boolean scanBig = i % 2 == 0;
+            Thread thread = new Thread(() -> {
+                try {
+                    SystemTestUtil.matchTuples(scanBig ? big : table, scanBig ? bigTuples : tuples);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
     /** Verifies SeqScan's getTupleDesc prefixes the table name + "." to the field names
      * @throws IOException
      */
@@ -86,11 +86,22 @@ public class SystemTestUtil {
 
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * Deletes a temporary table file when the JVM exits, along with the
+     * free space and zone map sidecars a HeapFile saves next to it when it
+     * is closed.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {